@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Splits a stream into chunks at content-defined boundaries, so that an
+ * edit inside a large file only changes the chunks around it. A boundary
+ * is cut where a Gear rolling hash of the last 64 bytes has its top bits
+ * clear. As in FastCDC, the test is stricter before the average chunk
+ * size and looser after it, which keeps chunk sizes close to the average.
+ * @author David Long */
+class Chunker {
+
+    /** Size of the smallest chunk, except at the end of the stream. */
+    static final int MIN_CHUNK = 1 << 18;
+
+    /** Size chunks are aimed at. */
+    static final int AVG_CHUNK = 1 << 20;
+
+    /** Size of the largest chunk. */
+    static final int MAX_CHUNK = 1 << 22;
+
+    /** Mask of the hash bits that must be clear for a cut before the
+     *  average size. */
+    private static final long MASK_SMALL = -1L << (64 - 22);
+
+    /** Mask of the hash bits that must be clear for a cut after the
+     *  average size. */
+    private static final long MASK_LARGE = -1L << (64 - 18);
+
+    /** Random value added to the hash for each byte value. The seed is
+     *  fixed, so boundaries never change between versions. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6c69746bL);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** The stream being split. */
+    private final InputStream _in;
+
+    /** Bytes read but not yet returned, from _start to _end. */
+    private final byte[] _buffer = new byte[MAX_CHUNK];
+
+    /** Start of the bytes not yet returned. */
+    private int _start;
+
+    /** End of the bytes read. */
+    private int _end;
+
+    /** A chunker splitting IN.
+     * @param in
+     */
+    Chunker(InputStream in) {
+        _in = in;
+    }
+
+    /** Returns the next chunk of the stream, or null at its end.
+     * @return
+     */
+    byte[] next() throws IOException {
+        System.arraycopy(_buffer, _start, _buffer, 0, _end - _start);
+        _end -= _start;
+        _start = 0;
+        while (_end < _buffer.length) {
+            int n = _in.read(_buffer, _end, _buffer.length - _end);
+            if (n < 0) {
+                break;
+            }
+            _end += n;
+        }
+        if (_end == 0) {
+            return null;
+        }
+        _start = cut(_buffer, _end);
+        return Arrays.copyOf(_buffer, _start);
+    }
+
+    /** Returns the length of the chunk starting the first N bytes
+     *  of DATA.
+     *  @param data
+     *  @param n
+     *  @return
+     */
+    private static int cut(byte[] data, int n) {
+        if (n <= MIN_CHUNK) {
+            return n;
+        }
+        long h = 0;
+        int i = MIN_CHUNK;
+        for (int normal = Math.min(AVG_CHUNK, n); i < normal; i += 1) {
+            h = (h << 1) + GEAR[data[i] & 0xff];
+            if ((h & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            h = (h << 1) + GEAR[data[i] & 0xff];
+            if ((h & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+}
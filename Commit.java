@@ -5,26 +5,52 @@ import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.Date;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /** The commit class.
  * @author David Long */
 public class Commit implements Serializable {
 
+    /** Serialization version, fixed so that adding methods does not
+     * make stored objects unreadable. */
+    private static final long serialVersionUID = 1135527190984866375L;
+
     /** Commit Message. */
     private  String _commitMessage;
 
     /** Commit timestamp. */
     private Date _timestamp;
 
-    /** Files that this commit have reference to. */
+    /** Files that this commit have reference to, for a commit made
+     * before commits had trees. Null for a commit with a tree. */
     private ArrayList<FileReference> _referenceFiles;
 
+    /** The blob hash of each file this commit tracks, sorted by path,
+     * or null until it is first asked for. */
+    private transient TreeMap<String, String> _manifest;
+
+    /** Hash of the root tree of this commit, or null if it was made
+     * before commits had trees and only has its reference files. */
+    private String _tree;
+
+    /** Store the tree of this commit is read from. */
+    private transient ObjectStore _trees;
+
     /** Previous commits' Hash. */
     private LinkedList<String> _prevHash;
 
     /** Parent hash of this commit. */
     private String _parent;
 
+    /** Hash this commit is stored under, or null if it is not stored
+     * yet. It is not part of the stored commit. */
+    private transient String _id;
+
     /** Default constructor of commit class with inputs
      * MESSAGE.
      */
@@ -55,20 +81,83 @@ public class Commit implements Serializable {
         _prevHash = new LinkedList<>();
     }
 
-    /** Get Reference commits.
+    /** Get Reference commits, in order of path. For a commit with a
+     * tree, the whole tree is read the first time.
      * @return
      */
     public ArrayList<FileReference> getReferenceFiles() {
-        return _referenceFiles;
+        ArrayList<FileReference> files = new ArrayList<>();
+        for (Map.Entry<String, String> e: getManifest().entrySet()) {
+            files.add(new FileReference(new File(e.getKey()), e.getKey(),
+                    e.getValue()));
+        }
+        return files;
     }
 
-    /** Returns the names of all the Reference files tracked by this commit. */
-    public ArrayList<String> getAllRefNames() {
-        ArrayList<String> names = new ArrayList<>();
-        for (FileReference r: _referenceFiles) {
-            names.add(r.getFileName());
+    /** Get the blob hash of each file this commit tracks, sorted by
+     * path. It is built the first time, from the whole tree or from the
+     * reference files, and cannot be changed.
+     * @return
+     */
+    public SortedMap<String, String> getManifest() {
+        if (_manifest == null) {
+            TreeMap<String, String> manifest = new TreeMap<>();
+            if (_referenceFiles == null) {
+                Tree.flatten(_trees, _tree, "", manifest);
+            } else {
+                for (FileReference r: _referenceFiles) {
+                    manifest.put(r.getFileName(), r.getReferenceHash());
+                }
+            }
+            _manifest = manifest;
         }
-        return names;
+        return Collections.unmodifiableSortedMap(_manifest);
+    }
+
+    /** Returns the blob hash of each of the files at PATHS that this
+     * commit tracks, by path. For a commit with a tree whose manifest
+     * has not been built, only the trees along PATHS are read.
+     * @param paths
+     * @return
+     */
+    public Map<String, String> getBlobs(Collection<String> paths) {
+        if (_manifest == null && _referenceFiles == null) {
+            return Tree.lookupAll(_trees, _tree, paths);
+        }
+        HashMap<String, String> blobs = new HashMap<>();
+        for (String path: paths) {
+            String hash = getManifest().get(path);
+            if (hash != null) {
+                blobs.put(path, hash);
+            }
+        }
+        return blobs;
+    }
+
+    /** Get the hash of the root tree of this commit, or null if it has
+     * none.
+     * @return
+     */
+    public String getTree() {
+        return _tree;
+    }
+
+    /** Make TREE, stored in TREES, the root tree of this commit in
+     * place of its reference files.
+     * @param tree
+     * @param trees
+     */
+    void setTree(String tree, ObjectStore trees) {
+        _tree = tree;
+        _trees = trees;
+        _referenceFiles = null;
+        _manifest = null;
+    }
+
+    /** Returns the names of all the Reference files tracked by this
+     * commit, sorted. */
+    public ArrayList<String> getAllRefNames() {
+        return new ArrayList<>(getManifest().keySet());
     }
 
     /** Get commit message.
@@ -85,36 +174,28 @@ public class Commit implements Serializable {
         return _timestamp;
     }
 
-    /** Set Reference files to BEFORE.
-     * @param before
+    /** Get the hash this commit is stored under, or null if it has not
+     * been stored.
+     * @return
      */
-    public void setReferenceFiles(ArrayList<FileReference> before) {
-        _referenceFiles = before;
+    public String getId() {
+        return _id;
     }
 
-    /** Change commit hash of a file in referencefiles to FILE,
-     * FILENAME, and NEWHASH.
-     * @param file
-     * @param fileName
-     * @param newHash
-     */
-    public void addReferenceFiles(File file, String fileName, String newHash) {
-        FileReference blob = filteredReferenceFile(fileName);
-        if (blob == null) {
-            _referenceFiles.add(new FileReference(file, fileName, newHash));
-        } else if (blob != null) {
-            blob.setReferenceHash(newHash);
-        }
+    /** Record that this commit is stored under ID.
+     * @param id
+     */
+    void setId(String id) {
+        _id = id;
     }
 
-    /**  Remove file with FILENAME from referencefiles.
-     * @param fileName
+    /** Append F to the reference files, which must not track a file
+     * of the same name yet.
+     * @param f
      */
-    public void removeReferenceFile(String fileName) {
-        FileReference blob = filteredReferenceFile(fileName);
-        if (blob != null) {
-            _referenceFiles.remove(_referenceFiles.indexOf(blob));
-        }
+    void appendReferenceFile(FileReference f) {
+        _referenceFiles.add(f);
+        _manifest = null;
     }
 
     /** Add previous HASH to current commit.
@@ -169,17 +250,18 @@ public class Commit implements Serializable {
         return true;
     }
 
-    /** A helper function to help loop through
-     * reference files to get file FILENAME.
+    /** Returns the reference file FILENAME, or null if this commit
+     * does not track it, from the manifest. For a commit with a tree
+     * whose manifest has not been built, only the trees along FILENAME
+     * are read.
      * @param fileName
      * @return
      */
     public FileReference filteredReferenceFile(String fileName) {
-        for (FileReference r: _referenceFiles) {
-            if (r.getFileName().equals(fileName)) {
-                return r;
-            }
-        }
-        return null;
+        String hash = _manifest == null && _referenceFiles == null
+            ? Tree.lookup(_trees, _tree, fileName)
+            : getManifest().get(fileName);
+        return hash == null ? null
+            : new FileReference(new File(fileName), fileName, hash);
     }
 }
@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache of deserialized commits, keyed by hash, which drops
+ * the least recently used commit when full. Commits never change once
+ * written, so an entry never needs to be invalidated; the same hash is
+ * the same commit in every repository, remotes included. Callers must
+ * not modify the commits they get. Counts hits and misses so the
+ * capacity can be sized.
+ * @author David Long */
+public class CommitCache {
+
+    /** The cached commits, from least to most recently used. */
+    private final LinkedHashMap<String, Commit> _commits;
+
+    /** Number of lookups that found their commit. */
+    private long _hits;
+
+    /** Number of lookups that did not. */
+    private long _misses;
+
+    /** A cache holding up to CAPACITY commits.
+     * @param capacity
+     */
+    public CommitCache(int capacity) {
+        _commits = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Commit> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Get commit HASH, or null if it is not cached.
+     * @param hash
+     * @return
+     */
+    public synchronized Commit get(String hash) {
+        Commit c = _commits.get(hash);
+        if (c == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return c;
+    }
+
+    /** Cache commit C read as HASH.
+     * @param hash
+     * @param c
+     */
+    public synchronized void put(String hash, Commit c) {
+        _commits.put(hash, c);
+    }
+
+    /** Get the number of lookups that found their commit.
+     * @return
+     */
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    /** Get the number of lookups that did not find their commit.
+     * @return
+     */
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "commit cache: " + _hits + " hits, " + _misses + " misses, "
+                + _commits.size() + " commits";
+    }
+}
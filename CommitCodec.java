@@ -0,0 +1,125 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/** The binary encoding of a commit, which is both stored and hashed to
+ * name the commit. All numbers are big-endian and all strings UTF-8, so
+ * a commit encodes to the same bytes, and the same hash, on any JVM.
+ * In order, an encoding holds:
+ * <ol>
+ *   <li>the bytes 'G', 'L', 'C' and the format version;</li>
+ *   <li>the timestamp, in milliseconds since the epoch (8 bytes);</li>
+ *   <li>the length of the message (4 bytes) and the message;</li>
+ *   <li>the number of parents (1 byte) and the 20-byte hash of each, the
+ *   first parent first;</li>
+ *   <li>the 20-byte hash of the root Tree.</li>
+ * </ol>
+ * Version 1 encodings, written before commits had trees, end instead
+ * with the number of tracked files (4 bytes) and, sorted by name, the
+ * length of each name (2 bytes), the name and the 20-byte hash of its
+ * blob. Commits written by older versions of gitlet are Java-serialized,
+ * and are still read as such.
+ * @author David Long */
+class CommitCodec {
+
+    /** Bytes starting every encoded commit. A Java-serialized commit
+     *  starts with 0xACED instead. */
+    private static final byte[] MAGIC = {'G', 'L', 'C'};
+
+    /** Version of the encoding. */
+    private static final byte VERSION = 2;
+
+    /** Version of the encoding listing the tracked files. */
+    private static final byte FLAT_VERSION = 1;
+
+    /** Returns true if DATA is an encoded commit rather than a
+     *  Java-serialized one.
+     *  @param data
+     *  @return
+     */
+    static boolean isEncoded(byte[] data) {
+        return data.length > MAGIC.length
+            && Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /** Returns the encoding of commit C, which must have a tree.
+     * @param c
+     * @return
+     */
+    static byte[] encode(Commit c) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(c.getTimestamp().getTime());
+            byte[] message =
+                c.getCommitMessage().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(message.length);
+            out.write(message);
+            List<String> parents = c.getAllParentCommit();
+            out.writeByte(parents.size());
+            for (String parent: parents) {
+                out.write(Utils.hexToBytes(parent));
+            }
+            out.write(Utils.hexToBytes(c.getTree()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the commit encoded in DATA, whose tree is read from
+     * TREES.
+     * @param data
+     * @param trees
+     * @return
+     */
+    static Commit decode(byte[] data, ObjectStore trees) {
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            in.skipNBytes(MAGIC.length);
+            byte version = in.readByte();
+            if (version != VERSION && version != FLAT_VERSION) {
+                throw Utils.error("Unknown commit version %d.", version);
+            }
+            long timestamp = in.readLong();
+            byte[] message = new byte[in.readInt()];
+            in.readFully(message);
+            Commit c = new Commit(timestamp,
+                    new String(message, StandardCharsets.UTF_8));
+            int nParents = in.readUnsignedByte();
+            byte[] id = new byte[Utils.UID_BYTES];
+            for (int i = 0; i < nParents; i += 1) {
+                in.readFully(id);
+                c.addPrevHash(Utils.bytesToHex(id, 0, id.length));
+            }
+            if (version == VERSION) {
+                in.readFully(id);
+                c.setTree(Utils.bytesToHex(id, 0, id.length), trees);
+                return c;
+            }
+            int nFiles = in.readInt();
+            for (int i = 0; i < nFiles; i += 1) {
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                in.readFully(id);
+                String fileName = new String(name, StandardCharsets.UTF_8);
+                c.appendReferenceFile(new FileReference(new File(fileName),
+                        fileName, Utils.bytesToHex(id, 0, id.length)));
+            }
+            return c;
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt commit.");
+        }
+    }
+}
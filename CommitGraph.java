@@ -0,0 +1,605 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+
+/** The commit graph of a repository: the parents, generation number and
+ * timestamp of each commit, in fixed-width records that are
+ * memory-mapped, so walking history never opens a commit object. The
+ * generation number of a commit is one more than the largest of its
+ * parents', or 1 for a root, so an ancestor of a commit always has a
+ * smaller one.
+ * The graph is a chain of layer files, named bottom first in its chain
+ * file. New commits are written as a new layer on top, and a layer is
+ * never changed once written; whenever the layer below the new one
+ * holds fewer than twice as many commits, the two are merged into one,
+ * so the chain stays logarithmically short. A layer holds a header
+ * (magic, version, number of commits and number of commits in the
+ * layers below it) and then, sorted by hash, a record for each commit:
+ * its 20-byte hash, the positions of its first and second parents (-1
+ * for none), its generation number and its timestamp. The position of a
+ * commit is the number of commits in the layers below its own plus its
+ * index there, so a parent is always in the same layer or a lower one.
+ * The graph holds every commit of its repository: when a repository
+ * from before the graph is first used, all of its commits are added, and
+ * commits with ancestors missing from the graph bring them along when
+ * they are added; a commit that is still missing, as one written by an
+ * interrupted command is, is added when positionAdding looks it up. As
+ * the records are sorted by hash, the graph also resolves abbreviated
+ * commit ids by binary search in each layer.
+ * @author David Long */
+class CommitGraph {
+
+    /** Magic number at the start of a layer file ("GLCG"). */
+    private static final int MAGIC = 0x474c4347;
+
+    /** Version of the layer format. */
+    private static final int VERSION = 1;
+
+    /** Length of the header of a layer file. */
+    private static final int HEADER_LENGTH = 16;
+
+    /** Length of a record: hash, two parents, generation and time. */
+    private static final int RECORD_LENGTH = Utils.UID_BYTES + 4 + 4 + 4 + 8;
+
+    /** Position standing for no parent. */
+    private static final int NONE = -1;
+
+    /** The directory holding the chain file and the layers. */
+    private final File _folder;
+
+    /** The chain file. */
+    private final File _chainFile;
+
+    /** The commits of the repository. */
+    private final ObjectStore _commits;
+
+    /** Reads a commit of the repository, given its hash. */
+    private final Function<String, Commit> _reader;
+
+    /** The layers, bottom first, or null if they are not open yet. */
+    private ArrayList<Layer> _layers;
+
+    /** The commit graph of the repository whose .gitlet directory is
+     * GITLETFOLDER, whose commits are in COMMITS and read by READER.
+     * @param gitletFolder
+     * @param commits
+     * @param reader
+     */
+    CommitGraph(File gitletFolder, ObjectStore commits,
+                Function<String, Commit> reader) {
+        _folder = Utils.join(gitletFolder, "graph");
+        _chainFile = Utils.join(_folder, "chain");
+        _commits = commits;
+        _reader = reader;
+    }
+
+    /** Get the layers, opening them if needed. A repository without a
+     * graph has all its commits added to a new one.
+     * @return
+     */
+    private synchronized ArrayList<Layer> layers() {
+        if (_layers == null) {
+            _layers = new ArrayList<>();
+            if (_chainFile.isFile()) {
+                for (String name: Utils.readContentsAsString(_chainFile)
+                         .split("\n")) {
+                    if (!name.isEmpty()) {
+                        _layers.add(new Layer(Utils.join(_folder, name)));
+                    }
+                }
+            } else {
+                add(_commits.allIds());
+            }
+        }
+        return _layers;
+    }
+
+    /** Drop the layers read so far, so that they are read again from
+     * the chain file when next used. */
+    synchronized void reload() {
+        _layers = null;
+    }
+
+    /** Returns the number of commits in the graph.
+     * @return
+     */
+    int size() {
+        ArrayList<Layer> layers = layers();
+        if (layers.isEmpty()) {
+            return 0;
+        }
+        Layer top = layers.get(layers.size() - 1);
+        return top._base + top._count;
+    }
+
+    /** Returns the position of commit HASH, or -1 if it is not in the
+     * graph.
+     * @param hash
+     * @return
+     */
+    int position(String hash) {
+        byte[] id = Utils.hexToBytes(hash);
+        for (Layer l: layers()) {
+            int index = l.find(id);
+            if (index >= 0) {
+                return l._base + index;
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the position of commit HASH, first adding it and its
+     * ancestors that are missing from the graph, as a commit written by
+     * a command that was interrupted before it updated the graph is.
+     * @param hash
+     * @return
+     */
+    int positionAdding(String hash) {
+        int position = position(hash);
+        if (position == NONE) {
+            add(List.of(hash));
+            position = position(hash);
+        }
+        return position;
+    }
+
+    /** Returns true if commit HASH is in the graph.
+     * @param hash
+     * @return
+     */
+    boolean contains(String hash) {
+        return position(hash) != NONE;
+    }
+
+    /** Returns the layer holding the commit at POSITION.
+     * @param position
+     * @return
+     */
+    private Layer layerOf(int position) {
+        for (Layer l: layers()) {
+            if (position >= 0 && position < l._base + l._count) {
+                return l;
+            }
+        }
+        throw Utils.error("No commit at position %d.", position);
+    }
+
+    /** Returns the hash of the commit at POSITION.
+     * @param position
+     * @return
+     */
+    String hashAt(int position) {
+        Layer l = layerOf(position);
+        return l.hashAt(position - l._base);
+    }
+
+    /** Returns the positions of the parents of the commit at POSITION,
+     * first parent first.
+     * @param position
+     * @return
+     */
+    int[] parentsAt(int position) {
+        Layer l = layerOf(position);
+        int record = l.recordAt(position - l._base) + Utils.UID_BYTES;
+        int first = l._data.getInt(record);
+        int second = l._data.getInt(record + 4);
+        if (first == NONE) {
+            return new int[0];
+        } else if (second == NONE) {
+            return new int[] {first};
+        }
+        return new int[] {first, second};
+    }
+
+    /** Returns the generation number of the commit at POSITION.
+     * @param position
+     * @return
+     */
+    int generationAt(int position) {
+        Layer l = layerOf(position);
+        return l._data.getInt(l.recordAt(position - l._base)
+                + Utils.UID_BYTES + 8);
+    }
+
+    /** Returns the timestamp, in milliseconds, of the commit at
+     * POSITION.
+     * @param position
+     * @return
+     */
+    long timestampAt(int position) {
+        Layer l = layerOf(position);
+        return l._data.getLong(l.recordAt(position - l._base)
+                + Utils.UID_BYTES + 12);
+    }
+
+    /** Returns the hashes of up to LIMIT commits whose hash starts with
+     * PREFIX, in no particular order. Each layer is binary searched, so
+     * the ids need not be listed.
+     * @param prefix
+     * @param limit
+     * @return
+     */
+    List<String> idsWithPrefix(String prefix, int limit) {
+        ArrayList<String> ids = new ArrayList<>();
+        if (!prefix.matches("[0-9a-f]{0,40}")) {
+            return ids;
+        }
+        StringBuilder low = new StringBuilder(prefix);
+        while (low.length() < Utils.UID_LENGTH) {
+            low.append('0');
+        }
+        byte[] id = Utils.hexToBytes(low.toString());
+        for (Layer l: layers()) {
+            for (int i = l.lowerBound(id); i < l._count && ids.size() < limit;
+                 i += 1) {
+                String hash = l.hashAt(i);
+                if (!hash.startsWith(prefix)) {
+                    break;
+                }
+                ids.add(hash);
+            }
+        }
+        return ids;
+    }
+
+    /** Returns the positions of the commit at POSITION and of its first
+     * parents, newest first. Each parent is only looked up when it is
+     * iterated to.
+     * @param position
+     * @return
+     */
+    Iterator<Integer> firstParents(int position) {
+        return new Iterator<>() {
+            /** The position returned next, or -1 at the end. */
+            private int _next = position;
+
+            @Override
+            public boolean hasNext() {
+                return _next != NONE;
+            }
+
+            @Override
+            public Integer next() {
+                if (_next == NONE) {
+                    throw new NoSuchElementException();
+                }
+                int result = _next;
+                int[] parents = parentsAt(result);
+                _next = parents.length == 0 ? NONE : parents[0];
+                return result;
+            }
+        };
+    }
+
+    /** Returns the positions of all commits in the graph, newest
+     * timestamp first.
+     * @return
+     */
+    List<Integer> positionsByTimestamp() {
+        ArrayList<Integer> positions = new ArrayList<>();
+        for (int p = size() - 1; p >= 0; p -= 1) {
+            positions.add(p);
+        }
+        positions.sort(Comparator.comparingLong(p -> -timestampAt(p)));
+        return positions;
+    }
+
+    /** Returns the hashes of the parents of commit HASH, first parent
+     * first, or null if it is not in the graph.
+     * @param hash
+     * @return
+     */
+    List<String> parents(String hash) {
+        int position = position(hash);
+        if (position == NONE) {
+            return null;
+        }
+        ArrayList<String> parents = new ArrayList<>();
+        for (int p: parentsAt(position)) {
+            parents.add(hashAt(p));
+        }
+        return parents;
+    }
+
+    /** Add the commits HASHES and those of their ancestors that are not
+     * in the graph yet as a new layer.
+     * @param hashes
+     */
+    synchronized void add(Collection<String> hashes) {
+        HashMap<String, Entry> added = new HashMap<>();
+        ArrayDeque<String> work = new ArrayDeque<>(hashes);
+        while (!work.isEmpty()) {
+            String hash = work.pop();
+            if (added.containsKey(hash) || contains(hash)) {
+                continue;
+            }
+            Commit c = _reader.apply(hash);
+            if (c.getAllParentCommit().size() > 2) {
+                throw Utils.error("Commit %s has more than two parents.",
+                        hash);
+            }
+            added.put(hash, new Entry(c.getAllParentCommit(),
+                    c.getTimestamp().getTime()));
+            work.addAll(c.getAllParentCommit());
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        setGenerations(added);
+        ArrayList<Layer> layers = layers();
+        ArrayList<Layer> merged = new ArrayList<>();
+        while (!layers.isEmpty()
+                && layers.get(layers.size() - 1)._count < 2 * added.size()) {
+            Layer top = layers.get(layers.size() - 1);
+            for (int i = 0; i < top._count; i += 1) {
+                added.put(top.hashAt(i), entryAt(top._base + i));
+            }
+            merged.add(layers.remove(layers.size() - 1));
+        }
+        layers.add(writeLayer(size(), added));
+        writeChain();
+        for (Layer l: merged) {
+            l._file.delete();
+        }
+    }
+
+    /** Remove the commits not in KEEP from the graph, rewriting it as
+     * one layer. No commit in KEEP may have a parent that is not.
+     * @param keep
+     */
+    synchronized void retain(Set<String> keep) {
+        HashMap<String, Entry> kept = new HashMap<>();
+        int size = size();
+        for (int position = 0; position < size; position += 1) {
+            String hash = hashAt(position);
+            if (keep.contains(hash)) {
+                kept.put(hash, entryAt(position));
+            }
+        }
+        if (kept.size() == size) {
+            return;
+        }
+        ArrayList<Layer> old = new ArrayList<>(layers());
+        _layers.clear();
+        if (!kept.isEmpty()) {
+            _layers.add(writeLayer(0, kept));
+        }
+        writeChain();
+        for (Layer l: old) {
+            if (_layers.isEmpty() || !l._file.equals(_layers.get(0)._file)) {
+                l._file.delete();
+            }
+        }
+    }
+
+    /** Returns the entry of the commit at POSITION.
+     * @param position
+     * @return
+     */
+    private Entry entryAt(int position) {
+        ArrayList<String> parents = new ArrayList<>();
+        for (int p: parentsAt(position)) {
+            parents.add(hashAt(p));
+        }
+        Entry e = new Entry(parents, timestampAt(position));
+        e._generation = generationAt(position);
+        return e;
+    }
+
+    /** Set the generation number of each entry of ADDED, whose parents
+     * are either in ADDED or in the graph.
+     * @param added
+     */
+    private void setGenerations(HashMap<String, Entry> added) {
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        for (String hash: added.keySet()) {
+            stack.push(hash);
+            while (!stack.isEmpty()) {
+                Entry e = added.get(stack.peek());
+                if (e._generation > 0) {
+                    stack.pop();
+                    continue;
+                }
+                int generation = 1;
+                boolean ready = true;
+                for (String parent: e._parents) {
+                    Entry pe = added.get(parent);
+                    if (pe == null) {
+                        generation = Math.max(generation,
+                                generationAt(position(parent)) + 1);
+                    } else if (pe._generation == 0) {
+                        stack.push(parent);
+                        ready = false;
+                    } else {
+                        generation = Math.max(generation,
+                                pe._generation + 1);
+                    }
+                }
+                if (ready) {
+                    e._generation = generation;
+                    stack.pop();
+                }
+            }
+        }
+    }
+
+    /** Write the commits of ENTRIES as a layer on top of the layers
+     * holding the first BASE commits, and return it.
+     * @param base
+     * @param entries
+     * @return
+     */
+    private Layer writeLayer(int base, HashMap<String, Entry> entries) {
+        ArrayList<String> hashes = new ArrayList<>(entries.keySet());
+        Collections.sort(hashes);
+        HashMap<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < hashes.size(); i += 1) {
+            positions.put(hashes.get(i), base + i);
+        }
+        ByteBuffer data = ByteBuffer.allocate(HEADER_LENGTH
+                + hashes.size() * RECORD_LENGTH);
+        data.putInt(MAGIC).putInt(VERSION).putInt(hashes.size())
+            .putInt(base);
+        for (String hash: hashes) {
+            Entry e = entries.get(hash);
+            data.put(Utils.hexToBytes(hash));
+            for (int i = 0; i < 2; i += 1) {
+                if (i >= e._parents.size()) {
+                    data.putInt(NONE);
+                } else {
+                    Integer p = positions.get(e._parents.get(i));
+                    data.putInt(p != null ? p : position(e._parents.get(i)));
+                }
+            }
+            data.putInt(e._generation).putLong(e._timestamp);
+        }
+        File file = Utils.join(_folder,
+                "graph-" + Utils.sha1(data.array()) + ".graph");
+        Utils.writeAtomically(file, data.array());
+        return new Layer(file);
+    }
+
+    /** Write the chain file naming the current layers. */
+    private void writeChain() {
+        StringBuilder chain = new StringBuilder();
+        for (Layer l: layers()) {
+            chain.append(l._file.getName()).append('\n');
+        }
+        Utils.writeAtomically(_chainFile,
+                chain.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** A commit being added to the graph. */
+    private static class Entry {
+
+        /** Hashes of its parents. */
+        private final List<String> _parents;
+
+        /** Its timestamp. */
+        private final long _timestamp;
+
+        /** Its generation number, or 0 if it is not known yet. */
+        private int _generation;
+
+        /** An entry for a commit with PARENTS made at TIMESTAMP.
+         * @param parents
+         * @param timestamp
+         */
+        Entry(List<String> parents, long timestamp) {
+            _parents = parents;
+            _timestamp = timestamp;
+        }
+    }
+
+    /** One mapped layer file. */
+    private static class Layer {
+
+        /** The layer file. */
+        private final File _file;
+
+        /** The mapped layer file. */
+        private final MappedByteBuffer _data;
+
+        /** Number of commits in this layer. */
+        private final int _count;
+
+        /** Number of commits in the layers below this one. */
+        private final int _base;
+
+        /** Open layer FILE.
+         * @param file
+         */
+        Layer(File file) {
+            _file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileChannel channel = raf.getChannel();
+                _data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (_data.getInt(0) != MAGIC || _data.getInt(4) != VERSION) {
+                throw Utils.error("Corrupt commit graph %s.", file.getName());
+            }
+            _count = _data.getInt(8);
+            _base = _data.getInt(12);
+        }
+
+        /** Returns the offset of record INDEX.
+         * @param index
+         * @return
+         */
+        int recordAt(int index) {
+            return HEADER_LENGTH + index * RECORD_LENGTH;
+        }
+
+        /** Returns the hash of record INDEX.
+         * @param index
+         * @return
+         */
+        String hashAt(int index) {
+            byte[] id = idAt(index);
+            return Utils.bytesToHex(id, 0, id.length);
+        }
+
+        /** Returns the index of the record of commit ID, or -1 if it is
+         * not in this layer.
+         * @param id
+         * @return
+         */
+        int find(byte[] id) {
+            int index = lowerBound(id);
+            if (index < _count && Arrays.equals(idAt(index), id)) {
+                return index;
+            }
+            return NONE;
+        }
+
+        /** Returns the index of the first record whose hash is not less
+         * than ID, or the number of records if there is none.
+         * @param id
+         * @return
+         */
+        int lowerBound(byte[] id) {
+            int lo = 0;
+            int hi = _count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (Arrays.compareUnsigned(idAt(mid), id) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /** Returns the hash bytes of record INDEX.
+         * @param index
+         * @return
+         */
+        byte[] idAt(int index) {
+            byte[] id = new byte[Utils.UID_BYTES];
+            _data.get(recordAt(index), id);
+            return id;
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.BindException;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/** Serves gitlet commands to other gitlet processes over a Unix domain
+ * socket, daemon.sock in the .gitlet directory, so that a command sent
+ * to it skips loading the classes, the commit graph, the message index,
+ * the packs and the commit cache again. Each client is handled on a
+ * thread of its own, but commands run one at a time, in the daemon's
+ * process, with their standard output and standard error sent back in
+ * frames followed by the exit status. Before each command, the files
+ * the caches were read from are compared with what they were after the
+ * last one, and the caches are dropped if another process changed them.
+ * Branch heads and the index are small, and every command reads them
+ * afresh as before. A command is only taken if the client runs with the
+ * daemon's time zone and gitlet properties, which the caches and the
+ * output depend on; otherwise the client runs it itself. While a client
+ * waits, the daemon sends it an empty frame every second, so a client
+ * that hears nothing for a while gives up on a daemon that is stuck,
+ * just as the daemon drops a client that stops sending its request.
+ * Only one daemon may serve a repository, which it ensures by holding a
+ * lock on daemon.lock.
+ * @author David Long */
+class Daemon {
+
+    /** Name of the socket file in the .gitlet directory. */
+    static final String SOCKET_NAME = "daemon.sock";
+
+    /** Name of the file a daemon holds a lock on while it runs. */
+    static final String LOCK_NAME = "daemon.lock";
+
+    /** Operand of the daemon command that stops a running daemon. */
+    static final String STOP = "--stop";
+
+    /** Frame of standard output. */
+    private static final byte OUT = 1;
+
+    /** Frame of standard error. */
+    private static final byte ERR = 2;
+
+    /** Frame holding the exit status, which ends a reply. */
+    private static final byte EXIT = 3;
+
+    /** Exit status of a reply to a command the daemon will not run
+     *  because the client's environment differs from its own. */
+    private static final int DECLINED = -1;
+
+    /** Size of the buffer of each output stream of a command. */
+    private static final int BUFFER = 1 << 16;
+
+    /** Milliseconds between checks that the socket file is still
+     *  there. */
+    private static final long POLL_MILLIS = 2000;
+
+    /** Milliseconds between the empty frames sent to a waiting
+     *  client. */
+    private static final long KEEPALIVE_MILLIS = 1000;
+
+    /** Milliseconds a client waits to connect, and then for each frame,
+     *  before giving up on the daemon, and that the daemon waits for
+     *  each part of a request before dropping the client. */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    /** Held while a command runs. */
+    private static final Object LOCK = new Object();
+
+    /** Sends the empty frames to waiting clients. */
+    private static final ScheduledExecutorService KEEPALIVE =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "gitlet-keepalive");
+            t.setDaemon(true);
+            return t;
+        });
+
+    /** Stat data of the watched files after the last command. */
+    private static String _stamp;
+
+    /** Returns the exit status of command ARGS, run by the daemon of
+     *  the repository whose .gitlet directory is GITLETFOLDER, with its
+     *  output copied to this process's, or -1 if no daemon is serving
+     *  there, it does not answer in time, or it declines the command
+     *  because this process has a different environment.
+     *  @param gitletFolder
+     *  @param args
+     *  @return
+     */
+    static int forward(File gitletFolder, String[] args) {
+        File socket = new File(gitletFolder, SOCKET_NAME);
+        if (!socket.exists()) {
+            return -1;
+        }
+        boolean answered = false;
+        try (SocketChannel channel =
+                 SocketChannel.open(StandardProtocolFamily.UNIX);
+             Selector selector = Selector.open()) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, 0);
+            if (!channel.connect(UnixDomainSocketAddress.of(
+                    socket.toPath()))) {
+                await(selector, key, SelectionKey.OP_CONNECT);
+                channel.finishConnect();
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream request = new DataOutputStream(bytes);
+            request.writeUTF(environment());
+            request.writeInt(args.length);
+            for (String arg: args) {
+                request.writeUTF(arg);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    await(selector, key, SelectionKey.OP_WRITE);
+                }
+            }
+            DataInputStream reply = new DataInputStream(
+                    new BufferedInputStream(timedInput(channel, selector,
+                            key), BUFFER));
+            byte[] data = new byte[BUFFER];
+            while (true) {
+                byte kind = reply.readByte();
+                int length = reply.readInt();
+                answered = true;
+                if (kind == EXIT) {
+                    System.out.flush();
+                    return length;
+                }
+                if (data.length < length) {
+                    data = new byte[length];
+                }
+                reply.readFully(data, 0, length);
+                (kind == ERR ? System.err : System.out).write(data, 0,
+                        length);
+            }
+        } catch (IOException excp) {
+            if (!answered) {
+                return -1;
+            }
+            System.out.flush();
+            System.err.println("Lost the connection to the daemon.");
+            return 1;
+        }
+    }
+
+    /** Wait until the channel of KEY, registered with SELECTOR, is ready
+     *  for OPS, throwing SocketTimeoutException if it is not within
+     *  TIMEOUT_MILLIS.
+     *  @param selector
+     *  @param key
+     *  @param ops
+     */
+    private static void await(Selector selector, SelectionKey key, int ops)
+        throws IOException {
+        key.interestOps(ops);
+        if (selector.select(TIMEOUT_MILLIS) == 0) {
+            throw new SocketTimeoutException("The daemon did not answer.");
+        }
+        selector.selectedKeys().clear();
+    }
+
+    /** Returns a stream reading CHANNEL, which is not blocking and whose
+     *  key with SELECTOR is KEY, that throws SocketTimeoutException if
+     *  nothing comes for TIMEOUT_MILLIS.
+     *  @param channel
+     *  @param selector
+     *  @param key
+     *  @return
+     */
+    private static InputStream timedInput(SocketChannel channel,
+                                          Selector selector,
+                                          SelectionKey key) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (true) {
+                    int n = channel.read(buffer);
+                    if (n != 0) {
+                        return n;
+                    }
+                    await(selector, key, SelectionKey.OP_READ);
+                }
+            }
+        };
+    }
+
+    /** Returns the settings a command's caches and output depend on in
+     *  this process: the time zone and every gitlet property.
+     *  @return
+     */
+    private static String environment() {
+        StringBuilder env = new StringBuilder(ZoneId.systemDefault().getId());
+        for (String name: new TreeSet<>(System.getProperties()
+                .stringPropertyNames())) {
+            if (name.startsWith("gitlet.")) {
+                env.append('\n').append(name).append('=')
+                    .append(System.getProperty(name));
+            }
+        }
+        return env.toString();
+    }
+
+    /** Serve commands on the socket of the repository whose .gitlet
+     *  directory is GITLETFOLDER until the daemon is stopped or its
+     *  socket file is deleted, running each with COMMAND. RELOAD is run
+     *  first whenever any of WATCHED changed since the last command.
+     *  Prints an error and returns if a daemon is already serving
+     *  there.
+     *  @param gitletFolder
+     *  @param watched
+     *  @param reload
+     *  @param command
+     */
+    static void serve(File gitletFolder, List<File> watched,
+                      Runnable reload, Consumer<String[]> command) {
+        File socket = new File(gitletFolder, SOCKET_NAME);
+        FileLock lock = lock(new File(gitletFolder, LOCK_NAME));
+        if (lock == null) {
+            System.out.println("A daemon is already running.");
+            return;
+        }
+        socket.delete();
+        String env = environment();
+        ExecutorService clients = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "gitlet-client");
+            t.setDaemon(true);
+            return t;
+        });
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            socket.deleteOnExit();
+            _stamp = stamp(watched);
+            watch(socket);
+            while (true) {
+                SocketChannel channel = server.accept();
+                clients.execute(() -> handle(channel, socket, env,
+                        watched, reload, command));
+            }
+        } catch (BindException excp) {
+            System.out.println("A daemon is already running.");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a lock on FILE, held until this process ends, or null if
+     *  another process holds one.
+     *  @param file
+     *  @return
+     */
+    private static FileLock lock(File file) {
+        try {
+            return new RandomAccessFile(file, "rw").getChannel().tryLock();
+        } catch (OverlappingFileLockException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Start a thread that ends the daemon, between commands, once
+     *  SOCKET is deleted.
+     *  @param socket
+     */
+    private static void watch(File socket) {
+        Thread t = new Thread(() -> {
+            while (socket.exists()) {
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException excp) {
+                    return;
+                }
+            }
+            synchronized (LOCK) {
+                System.exit(0);
+            }
+        }, "gitlet-watch");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Read a command from CHANNEL, run it with COMMAND, RELOAD having
+     *  been run first if any of WATCHED changed, and send its output
+     *  and exit status back, with empty frames until it ends. The
+     *  connection is dropped if the request stalls for TIMEOUT_MILLIS,
+     *  so a client that never sends it does not hold a thread. The first
+     *  is sent before anything else is done, so a command whose client
+     *  has given up, and may have run it itself, is dropped. The
+     *  daemon command with operand STOP deletes SOCKET and ends the
+     *  daemon instead. A request with no command is answered with exit
+     *  status 0, and any other from a client whose environment is not
+     *  ENV with DECLINED.
+     *  @param channel
+     *  @param socket
+     *  @param env
+     *  @param watched
+     *  @param reload
+     *  @param command
+     */
+    private static void handle(SocketChannel channel, File socket,
+                               String env, List<File> watched,
+                               Runnable reload, Consumer<String[]> command) {
+        try (channel; Selector selector = Selector.open()) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, 0);
+            DataInputStream request = new DataInputStream(
+                    new BufferedInputStream(timedInput(channel, selector,
+                            key)));
+            String clientEnv = request.readUTF();
+            String[] args = new String[request.readInt()];
+            for (int i = 0; i < args.length; i += 1) {
+                args[i] = request.readUTF();
+            }
+            key.cancel();
+            selector.selectNow();
+            channel.configureBlocking(true);
+            OutputStream reply = Channels.newOutputStream(channel);
+            if (args.length == 0 || !(isStop(args)
+                    || clientEnv.equals(env))) {
+                writeFrame(reply, EXIT, args.length == 0 ? 0 : DECLINED,
+                        null, 0, 0);
+                return;
+            }
+            writeFrame(reply, OUT, 0, null, 0, 0);
+            ScheduledFuture<?> keepalive = KEEPALIVE.scheduleAtFixedRate(
+                () -> {
+                    try {
+                        writeFrame(reply, OUT, 0, null, 0, 0);
+                    } catch (IOException excp) {
+                        return;
+                    }
+                }, KEEPALIVE_MILLIS, KEEPALIVE_MILLIS, TimeUnit.MILLISECONDS);
+            synchronized (LOCK) {
+                int status;
+                try {
+                    if (isStop(args)) {
+                        keepalive.cancel(false);
+                        writeFrame(reply, EXIT, 0, null, 0, 0);
+                        socket.delete();
+                        System.exit(0);
+                    }
+                    status = run(args, reply, watched, reload, command);
+                } finally {
+                    keepalive.cancel(false);
+                }
+                writeFrame(reply, EXIT, status, null, 0, 0);
+            }
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Returns true if ARGS is the daemon command with operand STOP.
+     *  @param args
+     *  @return
+     */
+    private static boolean isStop(String[] args) {
+        return args.length == 2 && args[0].equals("daemon")
+            && args[1].equals(STOP);
+    }
+
+    /** Returns the exit status of command ARGS, run with COMMAND with its
+     *  standard output and standard error sent to REPLY in frames. RELOAD
+     *  is run first if any of WATCHED changed since the last command.
+     *  @param args
+     *  @param reply
+     *  @param watched
+     *  @param reload
+     *  @param command
+     *  @return
+     */
+    private static int run(String[] args, OutputStream reply,
+                           List<File> watched, Runnable reload,
+                           Consumer<String[]> command) {
+        if (!stamp(watched).equals(_stamp)) {
+            reload.run();
+        }
+        PrintStream out = frameStream(reply, OUT);
+        PrintStream err = frameStream(reply, ERR);
+        PrintStream oldOut = System.out;
+        PrintStream oldErr = System.err;
+        System.setOut(out);
+        System.setErr(err);
+        int status = 0;
+        try {
+            command.accept(args);
+        } catch (RuntimeException excp) {
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            out.flush();
+            err.flush();
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+            _stamp = stamp(watched);
+        }
+        return status;
+    }
+
+    /** Returns a buffered stream whose contents are written to OUT in
+     *  frames of KIND.
+     *  @param out
+     *  @param kind
+     *  @return
+     */
+    private static PrintStream frameStream(OutputStream out, byte kind) {
+        return new PrintStream(new BufferedOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+                throws IOException {
+                writeFrame(out, kind, len, b, off, len);
+            }
+        }, BUFFER), false, StandardCharsets.UTF_8);
+    }
+
+    /** Write a frame of KIND to OUT, headed by VALUE, which is the
+     *  length of the data for an output frame and the exit status for an
+     *  EXIT frame, and holding the LEN bytes of DATA from OFF.
+     *  @param out
+     *  @param kind
+     *  @param value
+     *  @param data
+     *  @param off
+     *  @param len
+     */
+    private static void writeFrame(OutputStream out, byte kind, int value,
+                                   byte[] data, int off, int len)
+        throws IOException {
+        byte[] frame = new byte[5 + len];
+        frame[0] = kind;
+        frame[1] = (byte) (value >>> 24);
+        frame[2] = (byte) (value >>> 16);
+        frame[3] = (byte) (value >>> 8);
+        frame[4] = (byte) value;
+        if (len > 0) {
+            System.arraycopy(data, off, frame, 5, len);
+        }
+        synchronized (out) {
+            out.write(frame);
+        }
+    }
+
+    /** Returns the size, modification time and file key of each of
+     *  FILES, or that it is missing, as one string.
+     *  @param files
+     *  @return
+     */
+    private static String stamp(List<File> files) {
+        StringBuilder stamp = new StringBuilder();
+        for (File f: files) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(f.toPath(),
+                        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                stamp.append(attrs.size()).append(' ')
+                    .append(attrs.lastModifiedTime().toInstant()).append(' ')
+                    .append(attrs.fileKey()).append('\n');
+            } catch (IOException excp) {
+                stamp.append("-\n");
+            }
+        }
+        return stamp.toString();
+    }
+}
@@ -0,0 +1,204 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Binary deltas between two versions of a file. A delta is a list of
+ * instructions that rebuild the new version by copying ranges of the
+ * old version and inserting literal bytes. Matches are found by indexing
+ * fixed-size blocks of the old version by a rolling hash, as in rsync.
+ * @author David Long */
+class Delta {
+
+    /** Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+
+    /** Most blocks with the same hash tried at one position. */
+    private static final int MAX_CANDIDATES = 16;
+
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 16777619;
+
+    /** Instruction copying a range of the base. */
+    private static final int COPY = 1;
+
+    /** Instruction inserting literal bytes. */
+    private static final int INSERT = 2;
+
+    /** Returns a delta that rebuilds TARGET from BASE.
+     * @param base
+     * @param target
+     * @return
+     */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, target.length);
+        int nBlocks = base.length / BLOCK;
+        int mask = Integer.highestOneBit(Math.max(nBlocks, 1) * 2) - 1;
+        int[] heads = new int[mask + 1];
+        int[] next = new int[nBlocks];
+        Arrays.fill(heads, -1);
+        for (int b = nBlocks - 1; b >= 0; b -= 1) {
+            int slot = hash(base, b * BLOCK) & mask;
+            next[b] = heads[slot];
+            heads[slot] = b;
+        }
+        int power = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            power *= PRIME;
+        }
+        int pending = 0;
+        int pos = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (pos + BLOCK <= target.length) {
+            int bestStart = -1;
+            int bestLen = 0;
+            int tries = 0;
+            for (int b = heads[h & mask]; b >= 0 && tries < MAX_CANDIDATES;
+                 b = next[b], tries += 1) {
+                int len = matchLength(base, b * BLOCK, target, pos);
+                if (len >= BLOCK && len > bestLen) {
+                    bestStart = b * BLOCK;
+                    bestLen = len;
+                }
+            }
+            if (bestLen == 0) {
+                if (pos + BLOCK < target.length) {
+                    h = (h - target[pos] * power) * PRIME
+                            + target[pos + BLOCK];
+                }
+                pos += 1;
+                continue;
+            }
+            while (pos > pending && bestStart > 0
+                    && base[bestStart - 1] == target[pos - 1]) {
+                bestStart -= 1;
+                pos -= 1;
+                bestLen += 1;
+            }
+            writeInsert(out, target, pending, pos);
+            out.write(COPY);
+            writeVarint(out, bestStart);
+            writeVarint(out, bestLen);
+            pos += bestLen;
+            pending = pos;
+            if (pos + BLOCK <= target.length) {
+                h = hash(target, pos);
+            }
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the file rebuilt by applying DELTA to BASE.
+     * @param base
+     * @param delta
+     * @return
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        byte[] result = new byte[readVarint(delta, pos)];
+        int filled = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int start = readVarint(delta, pos);
+                int len = readVarint(delta, pos);
+                System.arraycopy(base, start, result, filled, len);
+                filled += len;
+            } else if (op == INSERT) {
+                int len = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, filled, len);
+                pos[0] += len;
+                filled += len;
+            } else {
+                throw Utils.error("Corrupt delta.");
+            }
+        }
+        if (filled != result.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Returns the rolling hash of the BLOCK bytes of DATA at START.
+     * @param data
+     * @param start
+     * @return
+     */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    /** Returns the number of equal bytes of BASE from BASESTART and
+     *  TARGET from TARGETSTART.
+     *  @param base
+     *  @param baseStart
+     *  @param target
+     *  @param targetStart
+     *  @return
+     */
+    private static int matchLength(byte[] base, int baseStart,
+                                   byte[] target, int targetStart) {
+        int len = 0;
+        while (baseStart + len < base.length
+               && targetStart + len < target.length
+               && base[baseStart + len] == target[targetStart + len]) {
+            len += 1;
+        }
+        return len;
+    }
+
+    /** Write an instruction inserting bytes FROM to TO of TARGET to OUT,
+     *  if there are any.
+     *  @param out
+     *  @param target
+     *  @param from
+     *  @param to
+     */
+    private static void writeInsert(ByteArrayOutputStream out,
+                                    byte[] target, int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Write non-negative VALUE to OUT, seven bits per byte.
+     * @param out
+     * @param value
+     */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Read a value written by writeVarint from DATA at POS[0],
+     *  advancing POS[0] past it.
+     *  @param data
+     *  @param pos
+     *  @return
+     */
+    private static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
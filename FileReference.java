@@ -7,6 +7,10 @@ import java.io.Serializable;
  * @author David Long */
 public class FileReference implements Serializable {
 
+    /** Serialization version, fixed so that adding methods does not
+     * make stored objects unreadable. */
+    private static final long serialVersionUID = 1095258695778996446L;
+
     /** File in a given commit. */
     private File _file;
 
@@ -32,6 +36,16 @@ public class FileReference implements Serializable {
         _version = 0;
     }
 
+    /** Copy of OTHER, which can be changed without changing OTHER.
+     * @param other
+     */
+    public FileReference(FileReference other) {
+        _file = other._file;
+        _fileName = other._fileName;
+        _referenceHash = other._referenceHash;
+        _version = other._version;
+    }
+
     /** Set ReferenceHash to NEWHASH.
      * @param newHash
      */
@@ -1,17 +1,46 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.nio.file.Files;
-import java.text.SimpleDateFormat;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author David Long
@@ -24,17 +53,26 @@ public class Main {
     /** Gitlet folder. */
     public static final File GITLET_FOLDER = Utils.join(CWD, ".gitlet");
 
-    /** Work folder. */
-    public static final File WORK_FILE = Utils.join(GITLET_FOLDER, "work");
+    /** Staging index file. */
+    public static final File INDEX_FILE = Utils.join(GITLET_FOLDER, "index");
 
-    /** Staging area folder. */
-    public static final File STAGING_FOLDER =
-            Utils.join(GITLET_FOLDER, "staging");
+    /** Remotes file. */
+    public static final File REMOTES_FILE =
+            Utils.join(GITLET_FOLDER, "remotes");
+
+    /** Work file, in which older versions kept the branches, the staging
+     * area and the remotes. */
+    public static final File WORK_FILE = Utils.join(GITLET_FOLDER, "work");
 
-    /** Remote directories folder. */
+    /** Remote directories folder of older versions. */
     public static final File REMOTE_FOLDER =
             Utils.join(GITLET_FOLDER, "remote");
 
+    /** Staging area folder, in which older versions kept copies of the
+     * staged files. */
+    public static final File STAGING_FOLDER =
+            Utils.join(GITLET_FOLDER, "staging");
+
     /** Commit folder. */
     public static final File COMMIT_FOLDER =
             Utils.join(GITLET_FOLDER, "commits");
@@ -42,18 +80,35 @@ public class Main {
     /** Blob folder. */
     public static final File BLOB_FOLDER = Utils.join(GITLET_FOLDER, "blobs");
 
-    /** Master Bracn. */
-    public static final String MASTER_BRANCH = "master";
+    /** Tree folder. */
+    public static final File TREE_FOLDER = Utils.join(GITLET_FOLDER, "trees");
 
-    /** Used in merge. */
-    private static ArrayList<String> _usedNames = new ArrayList<>();
+    /** Longest chain of deltas a blob may be stored at the end of. */
+    private static final int MAX_DELTA_DEPTH = 10;
 
-    /** Getter of used names.
-     * @return
-     */
-    public ArrayList<String> getUsedNames() {
-        return _usedNames;
-    }
+    /** Size past which a file is stored in content-defined chunks
+     * rather than whole or as a delta. */
+    private static final int CHUNK_LIMIT = 16 << 20;
+
+    /** Size past which repack and gc start a new pack, far enough under
+     *  Pack.MAX_SIZE that the object added last cannot pass it. */
+    private static final long PACK_LIMIT = 1L << 30;
+
+    /** Days an unreachable object is kept by gc after it is written. */
+    private static final int GC_GRACE_DAYS = 14;
+
+    /** Number of log entries written before the output is first
+     * flushed. */
+    private static final int LOG_SCREEN = 20;
+
+    /** Number of commits global-log decodes at a time. */
+    private static final int LOG_BATCH = 1024;
+
+    /** Size of the buffer of bufferedOut. */
+    private static final int OUT_BUFFER = 1 << 16;
+
+    /** Master Bracn. */
+    public static final String MASTER_BRANCH = "master";
 
     /** Check EXPLENGTH ARGS.
      * @param expLength
@@ -61,28 +116,89 @@ public class Main {
      * @return
      */
     private static void checkOperands(int expLength, String[] args) {
-        boolean error = false;
         if (expLength != args.length) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw Utils.error("Incorrect operands.");
         }
-
     }
 
     /** Check if .gitlet is contained.
      * @return
      */
     private static void containGitlet() {
-        boolean error = false;
         if (!Files.exists(Paths.get(".gitlet"))) {
-            System.out.println(("Not in an initialized Gitlet directory."));
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
+        }
+        if (!Refs.hasHead(GITLET_FOLDER)) {
+            migrateWork();
+        }
+    }
+
+    /** Converts the work file of a repository made by an older version
+     * into refs, HEAD, the index file and the remotes file, then deletes
+     * it. The staging area is written to the index file as older
+     * versions serialized it, which deserializeStage converts. Remotes
+     * are dropped, since older versions did not keep their directories.
+     * The commits and blobs, which older versions kept directly in their
+     * directories, are moved into fan-out subdirectories.
+     */
+    private static void migrateWork() {
+        if (!WORK_FILE.isFile()) {
+            throw Utils.error("Corrupt Gitlet directory: no HEAD file.");
+        }
+        Work work = Work.read(WORK_FILE);
+        Repo.COMMITS.fanOutFlat();
+        Repo.BLOBS.fanOutFlat();
+        Repo.REFS.init();
+        for (Map.Entry<String, String> e
+                : work.getBranchHashes().entrySet()) {
+            Repo.REFS.addBranchHash(e.getKey(), e.getValue());
+        }
+        Utils.writeObject(INDEX_FILE, work.getStagingArea());
+        serializeRemotes(new RemoteInfo());
+        Repo.REFS.setCurrBranch(work.getCurrBranch());
+        WORK_FILE.delete();
+        if (REMOTE_FOLDER.isDirectory()) {
+            for (File f: REMOTE_FOLDER.listFiles()) {
+                f.delete();
+            }
+            REMOTE_FOLDER.delete();
         }
     }
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> .... The command is sent to the daemon of the
+     *  repository if one is running, and run in this process otherwise.
+     *  Daemon is only loaded if the daemon's socket file is there.
+     */
     public static void main(String... args) {
+        if (args.length > 0 && !args[0].equals("daemon")
+                && Utils.join(GITLET_FOLDER, Daemon.SOCKET_NAME).exists()) {
+            int status = Daemon.forward(GITLET_FOLDER, args);
+            if (status > 0) {
+                System.exit(status);
+            } else if (status == 0) {
+                return;
+            }
+        }
+        run(args);
+    }
+
+    /** Runs the command ARGS in this process. A command stopped by a
+     *  GitletException prints its message.
+     *  @param args
+     */
+    static void run(String... args) {
+        try {
+            runCommand(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** Runs the command ARGS.
+     *  @param args
+     */
+    private static void runCommand(String... args) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             return;
@@ -94,8 +210,7 @@ public class Main {
             break;
         case "add":
             containGitlet();
-            checkOperands(2, args);
-            add(args[1]);
+            addCommand(args);
             break;
         case "commit":
             containGitlet();
@@ -109,15 +224,25 @@ public class Main {
             break;
         case "log":
             containGitlet();
-            log();
+            logCommand(args);
             break;
         case "global-log":
             containGitlet();
-            globalLog();
+            if (args.length == 2 && args[1].equals("--date-order")) {
+                globalLog(true);
+            } else {
+                checkOperands(1, args);
+                globalLog(false);
+            }
             break;
         case "find":
-            checkOperands(2, args);
-            find(args[1]);
+            containGitlet();
+            if (args.length == 3 && args[1].equals("--grep")) {
+                findContaining(args[2]);
+            } else {
+                checkOperands(2, args);
+                find(args[1]);
+            }
             break;
         case "checkout":
             containGitlet();
@@ -136,6 +261,10 @@ public class Main {
                 System.out.println("Incorrect operands.");
                 return;
             }
+        case "daemon":
+            containGitlet();
+            daemon(args);
+            break;
         default:
             mainRest(args);
         }
@@ -198,11 +327,61 @@ public class Main {
             checkOperands(3, args);
             push(args[1], args[2]);
             break;
+        case "migrate-objects":
+            containGitlet();
+            checkOperands(1, args);
+            migrateObjects();
+            break;
+        case "repack":
+            containGitlet();
+            checkOperands(1, args);
+            repack();
+            break;
+        case "gc":
+            containGitlet();
+            if (args.length == 2 && args[1].matches("--grace=\\d+")) {
+                gc(Integer.parseInt(args[1].substring("--grace=".length())));
+            } else {
+                checkOperands(1, args);
+                gc(GC_GRACE_DAYS);
+            }
+            break;
         default:
             System.out.println("No command with that name exists.");
         }
         return;
     }
+    /** Implements the daemon command ARGS: serve the commands of other
+     * gitlet processes in this repository until stopped, or, with
+     * operand --stop, stop the daemon that is serving them. The daemon
+     * keeps the packs, the commit graph, the message index and the
+     * commit cache between commands, and drops the first three whenever
+     * another process changed the files they were read from.
+     * @param args
+     */
+    private static void daemon(String[] args) {
+        if (args.length == 2 && args[1].equals(Daemon.STOP)) {
+            if (Daemon.forward(GITLET_FOLDER, args) < 0) {
+                System.out.println("No daemon is running.");
+            }
+            return;
+        }
+        checkOperands(1, args);
+        Daemon.serve(GITLET_FOLDER,
+            List.of(Utils.join(GITLET_FOLDER, "packs"),
+                    Utils.join(GITLET_FOLDER, "graph", "chain"),
+                    Utils.join(GITLET_FOLDER, "messages", "chain")),
+            Main::reload, Main::run);
+    }
+
+    /** Drop the packs, commit graph and message index read so far, so
+     * that they are read again when next used. */
+    private static void reload() {
+        Repo.PACKS.reload();
+        Indexes.GRAPH.reload();
+        Indexes.MESSAGES.reload();
+    }
+
     /** Implements init functionality. */
     private static void init() {
         if (Files.exists(Paths.get(".gitlet/"))) {
@@ -211,56 +390,141 @@ public class Main {
             return;
         }
         GITLET_FOLDER.mkdir();
-        STAGING_FOLDER.mkdir();
-        REMOTE_FOLDER.mkdir();
         COMMIT_FOLDER.mkdir();
         BLOB_FOLDER.mkdir();
-        try {
-            WORK_FILE.createNewFile();
-        } catch (IOException ie) {
-            System.out.println("error");
-        }
+        TREE_FOLDER.mkdir();
+        Repo.REFS.init();
         Commit first = Commit.firstCommit();
-        String hash = getCommitHash(first);
-        Work work = new Work();
-        work.addBranchHash(MASTER_BRANCH, hash);
-        work.setCurrHeadHash(hash);
-        work.setCurrBranch(MASTER_BRANCH);
-        work.updateCurrBranchCommitHistory(first);
-        serializeCommit(first);
-        serializeWork(work);
-    }
-
-    /** Implements add functionality. Stage file FILENAME.
-     * Get file using join and read object from file,
-     * and do some operation and write back.
-     * @param fileName
+        first.setTree(Tree.update(Repo.TREES, null, new TreeMap<>()),
+                Repo.TREES);
+        String hash = serializeCommit(first);
+        Repo.REFS.addBranchHash(MASTER_BRANCH, hash);
+        Repo.REFS.setCurrBranch(MASTER_BRANCH);
+        serializeStage(new StagingArea());
+    }
+
+    /** Parse the operands of the add command ARGS, which are -A or one
+     * or more paths and glob patterns, and run it.
+     * @param args
      */
-    public static void add(String fileName) {
-        if (!Utils.join(CWD, fileName).exists()) {
-            System.out.println("File does not exist.");
-            return;
+    private static void addCommand(String[] args) {
+        if (args.length == 2 && args[1].equals("-A")) {
+            addEverything();
+        } else if (args.length < 2) {
+            System.out.println("Incorrect operands.");
+        } else {
+            add(Arrays.asList(args).subList(1, args.length));
         }
-        Work work = deserializeWork();
-        Commit head = getCurrHeadCommit(work);
-        ArrayList<FileReference> prev = head.getReferenceFiles();
-        StagingArea stage = work.getStagingArea();
-        String fileHash = getFileHash(Utils.join(CWD, fileName));
-        boolean inCommit = false;
-        for (FileReference r: prev) {
-            if (fileName.equals(r.getFileName())
-                    && fileHash.equals(r.getReferenceHash())) {
-                inCommit = true;
-                break;
+    }
+
+    /** Implements add functionality. Stage the files named by SPECS,
+     * each of which is a path, which may be in a subdirectory, or a glob
+     * pattern matched against the paths of the working files, in which
+     * '*' does not cross a '/' and '**' does. Nothing is staged if a path
+     * does not exist or a pattern matches no file. The staging area is
+     * read and written once however many files are staged.
+     * @param specs
+     */
+    public static void add(List<String> specs) {
+        TreeSet<String> names = new TreeSet<>();
+        List<String> workFiles = null;
+        for (String spec: specs) {
+            String path = workingPath(spec);
+            if (path != null && isGlob(path)) {
+                if (workFiles == null) {
+                    workFiles = Utils.plainFilenamesUnder(CWD);
+                }
+                PathMatcher matcher =
+                    FileSystems.getDefault().getPathMatcher("glob:" + path);
+                boolean matched = false;
+                for (String w: workFiles) {
+                    if (matcher.matches(Paths.get(w))) {
+                        names.add(w);
+                        matched = true;
+                    }
+                }
+                if (!matched) {
+                    path = null;
+                }
+            } else if (path != null && Utils.join(CWD, path).isFile()) {
+                names.add(path);
+            } else {
+                path = null;
+            }
+            if (path == null) {
+                System.out.println("File does not exist.");
+                return;
             }
         }
-        if (inCommit) {
-            stage.cancelStagedAddition(fileName);
-        } else {
-            stage.stageForAddition(fileName);
+        StagingArea stage = deserializeStage();
+        stageFiles(stage, getCurrHeadCommit(), new ArrayList<>(names));
+        serializeStage(stage);
+    }
+
+    /** Implements add -A. Stage every working file that differs from
+     * the head commit, and stage for removal every tracked file that is
+     * gone from the working directory.
+     */
+    private static void addEverything() {
+        List<String> workFiles = Utils.plainFilenamesUnder(CWD);
+        HashSet<String> present = new HashSet<>(workFiles);
+        Commit head = getCurrHeadCommit();
+        StagingArea stage = deserializeStage();
+        stageFiles(stage, head, workFiles);
+        for (String name: head.getAllRefNames()) {
+            if (!present.contains(name)) {
+                stage.stageForRemoval(name);
+            }
+        }
+        for (String name: stage.getAdditionArea()) {
+            if (!present.contains(name)) {
+                stage.cancelStagedAddition(name);
+            }
+        }
+        serializeStage(stage);
+    }
+
+    /** Returns true if PATH has any of the characters of a glob
+     * pattern.
+     * @param path
+     * @return
+     */
+    private static boolean isGlob(String path) {
+        return path.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0);
+    }
+
+    /** Stage in STAGE each of the working files NAMES that differs from
+     * the version commit HEAD tracks, storing it as a blob at once, as
+     * a delta against that version if any, and unstage the others.
+     * Files whose stat data changed are hashed while they are stored,
+     * so each is read once, and they are stored in parallel by Workers,
+     * so commit only has to write trees and the commit itself.
+     * @param stage
+     * @param head
+     * @param names
+     */
+    private static void stageFiles(StagingArea stage, Commit head,
+                                   List<String> names) {
+        Map<String, String> prev = head.getBlobs(names);
+        Map<String, String> hashes = stage.getWorkingHashes(names,
+            name -> serializeBlob(Utils.join(CWD, name), prev.get(name)));
+        ArrayList<String> changed = new ArrayList<>();
+        for (String name: names) {
+            stage.cancelStagedRemovel(name);
+            if (hashes.get(name).equals(prev.get(name))) {
+                stage.cancelStagedAddition(name);
+            } else {
+                changed.add(name);
+            }
+        }
+        List<String> stored = Workers.map(changed, name -> {
+            String hash = hashes.get(name);
+            return Repo.BLOBS.contains(hash) ? hash
+                : serializeBlob(Utils.join(CWD, name), prev.get(name));
+        });
+        for (int i = 0; i < changed.size(); i += 1) {
+            stage.stageForAddition(changed.get(i), stored.get(i));
         }
-        stage.cancelStagedRemovel(fileName);
-        serializeWork(work);
     }
 
     /** Implements commit functionality.
@@ -273,14 +537,11 @@ public class Main {
             System.out.println("Please enter a commit message.");
             return;
         }
-        Work work = deserializeWork();
-        Commit head = getCurrHeadCommit(work);
-        ArrayList<FileReference> prev = head.getReferenceFiles();
+        Commit head = getCurrHeadCommit();
         Commit toBeCommited = new Commit(message);
-        toBeCommited.setReferenceFiles(prev);
-        toBeCommited.addPrevHash(work.getCurrHeadHash());
-        toBeCommited.setParent(work.getCurrHeadHash());
-        StagingArea stage = work.getStagingArea();
+        toBeCommited.addPrevHash(head.getId());
+        toBeCommited.setParent(head.getId());
+        StagingArea stage = deserializeStage();
         ArrayList<String> additionArea = stage.getAdditionArea();
         ArrayList<String> removalArea = stage.getRemovalArea();
         if (additionArea.size() == 0
@@ -288,101 +549,378 @@ public class Main {
             System.out.println("No changes added to the commit.");
             return;
         }
-        for (String fileName: additionArea) {
-            File stagedFile = stage.getStagedAdditionFile(fileName);
-            String fileHash = getFileHash(stagedFile);
-            FileReference oldVersion =
-                    toBeCommited.filteredReferenceFile(fileName);
-            if (oldVersion != null) {
-                oldVersion.updateVersion();
+        toBeCommited.setTree(commitTree(stage, head), Repo.TREES);
+        stage.forgetWorking(removalArea);
+        stage.deleteAllStage();
+        Repo.REFS.setCurrBranchHash(serializeCommit(toBeCommited));
+        serializeStage(stage);
+    }
+
+    /** Returns the root tree of PARENT with the files staged in STAGE,
+     * which are already stored as blobs, and the removals staged in
+     * STAGE applied. Only the trees along the staged paths are
+     * rewritten.
+     * @param stage
+     * @param parent
+     * @return
+     */
+    private static String commitTree(StagingArea stage, Commit parent) {
+        TreeMap<String, String> changes =
+            new TreeMap<>(stage.getStagedHashes());
+        for (String fileName: stage.getRemovalArea()) {
+            changes.put(fileName, null);
+        }
+        return Tree.update(Repo.TREES, treeOf(parent), changes);
+    }
+
+    /** Returns the root tree of commit C. For a commit made before
+     * commits had trees, the tree is built from its reference files and
+     * stored.
+     * @param c
+     * @return
+     */
+    private static String treeOf(Commit c) {
+        if (c.getTree() != null) {
+            return c.getTree();
+        }
+        return Tree.update(Repo.TREES, null, new TreeMap<>(c.getManifest()));
+    }
+
+    /** Returns NAME, a path relative to the working directory, as a
+     * '/'-separated path from the top of the working directory, or null
+     * if it names a file outside it or inside .gitlet.
+     * @param name
+     * @return
+     */
+    private static String workingPath(String name) {
+        Path top = CWD.toPath().toAbsolutePath().normalize();
+        Path path = top.resolve(name).normalize();
+        if (!path.startsWith(top) || path.equals(top)) {
+            return null;
+        }
+        Path relative = top.relativize(path);
+        if (relative.getName(0).toString().equals(".gitlet")) {
+            return null;
+        }
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /** Helper method that help serializes STAGE as the index file.
+     * @param stage
+     */
+    private static void serializeStage(StagingArea stage) {
+        stage.write(INDEX_FILE);
+    }
+
+    /** Helper method that help deserializes the index file
+     * and returns the staging area for future use.
+     * @return
+     */
+    private static StagingArea deserializeStage() {
+        StagingArea stage = StagingArea.read(INDEX_FILE);
+        if (STAGING_FOLDER.exists()) {
+            migrateStagedCopies(stage);
+        }
+        return stage;
+    }
+
+    /** Stores the copies an older version kept of the files staged in
+     * STAGE as blobs, then rewrites the index file and deletes the
+     * staging folder, which is no longer used.
+     * @param stage
+     */
+    private static void migrateStagedCopies(StagingArea stage) {
+        for (Map.Entry<String, String> e
+                : stage.getStagedHashes().entrySet()) {
+            File copy = StagingArea.getStagedAdditionFile(e.getKey());
+            if (!Repo.BLOBS.contains(e.getValue()) && copy.isFile()) {
+                serializeBlob(copy, null);
             }
-            toBeCommited.addReferenceFiles(stagedFile, fileName, fileHash);
-            serializeBlob(stagedFile);
         }
-        stage.deleteAllAddition();
-        for (String fileName: removalArea) {
-            toBeCommited.removeReferenceFile(fileName);
+        serializeStage(stage);
+        for (String name: Utils.plainFilenamesUnder(STAGING_FOLDER)) {
+            Utils.deletePruning(Utils.join(STAGING_FOLDER, name),
+                    STAGING_FOLDER);
+        }
+        for (File dir: STAGING_FOLDER.listFiles()) {
+            dir.delete();
         }
-        stage.deleteAllRemoval();
-        work.updateCurrBranchCommitHistory(toBeCommited);
-        serializeCommit(toBeCommited);
-        work.setCurrHeadHash(getCommitHash(toBeCommited));
-        work.addBranchHash(work.getCurrBranch(), getCommitHash(toBeCommited));
-        serializeWork(work);
+        STAGING_FOLDER.delete();
     }
 
-    /** Helper method that help serializes WORK as Work file.
-     * @param work
+    /** Helper method that help serializes REMOTES as the remotes file.
+     * @param remotes
      */
-    private static void serializeWork(Work work) {
-        Utils.writeObject(WORK_FILE, work);
+    private static void serializeRemotes(RemoteInfo remotes) {
+        Utils.writeObject(REMOTES_FILE, remotes);
     }
 
-    /** Helper method that help deserializes the Work file
-     * and returns the deserialized file for future use.
+    /** Helper method that help deserializes the remotes file.
      * @return
      */
-    private static Work deserializeWork() {
-        return Utils.readObject(WORK_FILE, Work.class);
+    private static RemoteInfo deserializeRemotes() {
+        if (!REMOTES_FILE.exists()) {
+            return new RemoteInfo();
+        }
+        return Utils.readObject(REMOTES_FILE, RemoteInfo.class);
     }
 
     /** Serializes file BLOB and
-     * stores it in the blob foolder.
+     * stores it in the blob foolder, as a delta against the
+     * earlier version BASEHASH of the same file when that is smaller.
+     * BASEHASH is null for a new file. New files are streamed into the
+     * store in one pass, and files past CHUNK_LIMIT are split into
+     * chunks, each stored once however many versions share it, so
+     * neither is ever held in memory whole. Returns the hash of BLOB.
      * @param blob
+     * @param baseHash
+     * @return
+     */
+    private static String serializeBlob(File blob, String baseHash) {
+        if (blob.length() > CHUNK_LIMIT) {
+            return Repo.BLOBS.ingestChunks(blob);
+        }
+        if (baseHash == null) {
+            return Repo.BLOBS.ingest(blob);
+        }
+        return storeBlob(Utils.readContents(blob), baseHash);
+    }
+
+    /** Stores CONTENTS, no larger than CHUNK_LIMIT, in the blob folder
+     * as a delta against blob BASEHASH, if not null, when that is
+     * smaller, and returns their hash.
+     * @param contents
+     * @param baseHash
+     * @return
      */
-    private static void serializeBlob(File blob) {
-        Utils.writeContents(Utils.join(BLOB_FOLDER, getFileHash(blob)),
-                Utils.readContents(blob));
+    private static String storeBlob(byte[] contents, String baseHash) {
+        String hash = Utils.sha1(contents);
+        if (Repo.BLOBS.contains(hash)) {
+            return hash;
+        }
+        byte[] stored = baseHash == null ? null
+            : deltaBlob(baseHash, contents);
+        if (stored == null) {
+            stored = ObjectFormat.raw(contents);
+        }
+        Repo.BLOBS.write(hash, stored);
+        return hash;
     }
 
-    /** Deserizes blob file HASH and return the file.
+    /** Returns CONTENTS stored as a delta against blob BASEHASH, or null
+     * if the delta chain would get too deep, the base is chunked or the
+     * delta saves too little.
+     * @param baseHash
+     * @param contents
+     * @return
+     */
+    private static byte[] deltaBlob(String baseHash, byte[] contents) {
+        byte[] base = Repo.BLOBS.read(baseHash);
+        int depth = ObjectFormat.deltaDepth(base) + 1;
+        if (depth > MAX_DELTA_DEPTH
+                || ObjectFormat.typeOf(base) == ObjectFormat.CHUNKED) {
+            return null;
+        }
+        byte[] delta = Delta.create(reconstructBlob(base), contents);
+        if (delta.length > contents.length / 2) {
+            return null;
+        }
+        return ObjectFormat.delta(baseHash, depth, delta);
+    }
+
+    /** Deserizes blob HASH and return its contents.
      * @param hash
      * @return
      */
-    private static File deserializeBlob(String hash) {
-        return Utils.join(BLOB_FOLDER, hash);
+    private static byte[] deserializeBlob(String hash) {
+        return reconstructBlob(Repo.BLOBS.read(hash));
     }
 
-    /** Static method that serializes commit COMMITOBJ and
-     * stores it in the commits folder. Returns SHA1 hash (filename).
-     * @param commitObj
+    /** Write the contents of blob HASH to file DEST. A blob stored whole
+     * is decompressed straight into DEST without being held in memory,
+     * and a chunked blob is written one chunk at a time.
+     * @param hash
+     * @param dest
+     */
+    private static void writeBlob(String hash, File dest) {
+        try (OutputStream out = new FileOutputStream(dest)) {
+            writeBlob(hash, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the contents of blob HASH to OUT.
+     * @param hash
+     * @param out
      */
-    private static void serializeCommit(Commit commitObj) {
-        Utils.writeObject(Utils.join(
-                COMMIT_FOLDER, getCommitHash(commitObj)), commitObj);
+    private static void writeBlob(String hash, OutputStream out)
+        throws IOException {
+        try (BufferedInputStream in =
+                new BufferedInputStream(Repo.BLOBS.open(hash))) {
+            in.mark(ObjectFormat.HEADER_LENGTH);
+            byte[] head = in.readNBytes(ObjectFormat.HEADER_LENGTH);
+            byte type = ObjectFormat.typeOf(head);
+            if (type == ObjectFormat.DELTA || type == ObjectFormat.CHUNKED) {
+                ByteArrayOutputStream stored = new ByteArrayOutputStream();
+                stored.writeBytes(head);
+                in.transferTo(stored);
+                if (type == ObjectFormat.DELTA) {
+                    out.write(reconstructBlob(stored.toByteArray()));
+                    return;
+                }
+                for (String chunk
+                        : ObjectFormat.chunks(stored.toByteArray())) {
+                    writeBlob(chunk, out);
+                }
+                return;
+            }
+            if (!ObjectFormat.hasHeader(head)) {
+                in.reset();
+            }
+            in.transferTo(out);
+        }
     }
 
-    /** Help to get the hashcode of a COMMITOBJ.
+    /** Returns the contents of the stored blob STORED. A delta is
+     * rebuilt by reading each object of its chain once, down to the
+     * whole base, and then applying the deltas back up the chain. A
+     * chunked blob is its chunks put back together.
+     * @param stored
+     * @return
+     */
+    private static byte[] reconstructBlob(byte[] stored) {
+        if (ObjectFormat.typeOf(stored) == ObjectFormat.CHUNKED) {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            for (String chunk: ObjectFormat.chunks(stored)) {
+                contents.writeBytes(deserializeBlob(chunk));
+            }
+            return contents.toByteArray();
+        }
+        ArrayDeque<byte[]> deltas = new ArrayDeque<>();
+        while (ObjectFormat.typeOf(stored) == ObjectFormat.DELTA) {
+            deltas.push(ObjectFormat.deltaData(stored));
+            stored = Repo.BLOBS.read(ObjectFormat.deltaBase(stored));
+        }
+        byte[] contents = ObjectFormat.rawContents(stored);
+        while (!deltas.isEmpty()) {
+            contents = Delta.apply(contents, deltas.pop());
+        }
+        return contents;
+    }
+
+    /** Copy blob HASH from store FROM to store TO, along with the
+     * bases it is a delta against and the chunks it is made of that TO
+     * lacks. Chunks TO already has are not copied again.
+     * @param from
+     * @param to
+     * @param hash
+     */
+    private static void copyBlob(ObjectStore from, ObjectStore to,
+                                 String hash) {
+        byte[] links = readBlobLinks(from, hash);
+        if (links != null
+                && ObjectFormat.typeOf(links) == ObjectFormat.DELTA) {
+            if (!to.contains(ObjectFormat.deltaBase(links))) {
+                copyBlob(from, to, ObjectFormat.deltaBase(links));
+            }
+        } else if (links != null) {
+            for (String chunk: ObjectFormat.chunks(links)) {
+                if (!to.contains(chunk)) {
+                    copyBlob(from, to, chunk);
+                }
+            }
+        }
+        to.copy(from, hash);
+    }
+
+    /** Returns blob HASH of STORE decoded if it refers to other blobs,
+     * being a delta or chunked, or null if it is stored whole. A blob
+     * stored whole is not read past its header.
+     * @param store
+     * @param hash
+     * @return
+     */
+    private static byte[] readBlobLinks(ObjectStore store, String hash) {
+        try (InputStream in = store.open(hash)) {
+            byte[] head = in.readNBytes(ObjectFormat.HEADER_LENGTH);
+            byte type = ObjectFormat.typeOf(head);
+            if (type != ObjectFormat.DELTA && type != ObjectFormat.CHUNKED) {
+                return null;
+            }
+            ByteArrayOutputStream stored = new ByteArrayOutputStream();
+            stored.writeBytes(head);
+            in.transferTo(stored);
+            return stored.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Static method that encodes commit COMMITOBJ and
+     * stores it in the commits folder, recording its id in it, caching
+     * it and adding it to the commit graph and message index. This is
+     * the only time a commit is encoded and hashed. Returns SHA1 hash
+     * (filename).
      * @param commitObj
      * @return
      */
-    private static String getCommitHash(Commit commitObj) {
-        String hash = Utils.sha1(Utils.serialize(commitObj));
+    private static String serializeCommit(Commit commitObj) {
+        byte[] encoded = CommitCodec.encode(commitObj);
+        String hash = Utils.sha1(encoded);
+        Repo.COMMITS.write(hash, encoded);
+        commitObj.setId(hash);
+        Repo.COMMIT_CACHE.put(hash, commitObj);
+        Indexes.GRAPH.add(List.of(hash));
+        Indexes.MESSAGES.add(List.of(hash));
         return hash;
     }
 
-    /** Help to get the a hash code of a F.
-     * @param f
+    /** Returns the parents of commit HASH, first parent first, from the
+     * commit graph, reading the commit only if it is not in the graph.
+     * @param hash
      * @return
      */
-    private static String getFileHash(File f) {
-        return Utils.sha1(Utils.readContents(f));
+    private static List<String> parentsOf(String hash) {
+        return parentsOf(Indexes.GRAPH, Repo.COMMITS, Repo.TREES, hash);
     }
 
-    /** Deserializes commit file HASH and returns Commit object.
+    /** Returns the parents of commit HASH of a repository with commit
+     * graph REMOTEGRAPH, commits REMOTECOMMITS and trees REMOTETREES,
+     * reading the commit only if it is not in the graph.
+     * @param remoteGraph
+     * @param remoteCommits
+     * @param remoteTrees
+     * @param hash
+     * @return
+     */
+    private static List<String> parentsOf(CommitGraph remoteGraph,
+                                          ObjectStore remoteCommits,
+                                          ObjectStore remoteTrees,
+                                          String hash) {
+        List<String> parents = remoteGraph.parents(hash);
+        if (parents == null) {
+            parents = deserializeRemoteCommit(remoteCommits, remoteTrees,
+                    hash).getAllParentCommit();
+        }
+        return parents;
+    }
+
+    /** Deserializes commit file HASH and returns Commit object, which
+     * knows HASH as its id. The commit is shared through the commit
+     * cache and must not be changed.
      * @param hash
      * @return
      */
     public static Commit deserializeCommit(String hash) {
-        return Utils.readObject(Utils.join(COMMIT_FOLDER, hash), Commit.class);
+        return deserializeRemoteCommit(Repo.COMMITS, Repo.TREES, hash);
     }
 
-    /** Get the current head commit WORK.
-     * @param work
+    /** Get the current head commit.
      * @return
      */
-    public static Commit getCurrHeadCommit(Work work) {
-        return deserializeCommit(work.getCurrHeadHash());
+    public static Commit getCurrHeadCommit() {
+        return deserializeCommit(Repo.REFS.getCurrHeadHash());
     }
 
     /** Implements remove functionality by removing file
@@ -390,11 +928,10 @@ public class Main {
      * @param fileName
      */
     public static void rm(String fileName) {
-        Work work = deserializeWork();
-        Commit head = getCurrHeadCommit(work);
-        StagingArea stage = work.getStagingArea();
-        ArrayList<String> additionArea = stage.getAdditionArea();
-        if (stage.filteredAddition(fileName) == null
+        Commit head = getCurrHeadCommit();
+        StagingArea stage = deserializeStage();
+        fileName = workingPath(fileName);
+        if (fileName == null || stage.filteredAddition(fileName) == null
                 && stage.filteredRemoval(fileName) == null
                 && head.filteredReferenceFile(fileName) == null) {
             System.out.println("No reason to remove the file");
@@ -402,13 +939,69 @@ public class Main {
         }
         stage.cancelStagedAddition(fileName);
         if (head.filteredReferenceFile(fileName) != null) {
-            stage.manualAddRemoval(fileName);
+            stage.stageForRemoval(fileName);
             if (Utils.join(CWD, fileName).exists()) {
-                stage.stageForRemoval(fileName);
-                Utils.restrictedDelete(Utils.join(CWD, fileName));
+                deleteWorking(fileName);
             }
         }
-        serializeWork(work);
+        serializeStage(stage);
+    }
+
+    /** Parse the options of the log command ARGS, which are any of
+     * -n COUNT, --skip=COUNT, --since=DATE and --until=DATE, and run it.
+     * A DATE is yyyy-MM-dd or yyyy-MM-ddTHH:mm[:ss], local time.
+     * @param args
+     */
+    private static void logCommand(String[] args) {
+        int limit = Integer.MAX_VALUE;
+        int skip = 0;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        try {
+            for (int i = 1; i < args.length; i += 1) {
+                String arg = args[i];
+                if (arg.equals("-n") && i + 1 < args.length) {
+                    i += 1;
+                    limit = count(args[i]);
+                } else if (arg.startsWith("--skip=")) {
+                    skip = count(arg.substring("--skip=".length()));
+                } else if (arg.startsWith("--since=")) {
+                    since = parseLogDate(arg.substring("--since=".length()));
+                } else if (arg.startsWith("--until=")) {
+                    until = parseLogDate(arg.substring("--until=".length()));
+                } else {
+                    throw new IllegalArgumentException(arg);
+                }
+            }
+        } catch (IllegalArgumentException | DateTimeParseException excp) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        log(limit, skip, since, until);
+    }
+
+    /** Returns the count written as S, which must not be negative.
+     * @param s
+     * @return
+     */
+    private static int count(String s) {
+        int n = Integer.parseInt(s);
+        if (n < 0) {
+            throw new IllegalArgumentException(s);
+        }
+        return n;
+    }
+
+    /** Returns the time, in milliseconds, of the local date or date and
+     * time DATE.
+     * @param date
+     * @return
+     */
+    private static long parseLogDate(String date) {
+        LocalDateTime time = date.contains("T") ? LocalDateTime.parse(date)
+            : LocalDate.parse(date).atStartOfDay();
+        return time.atZone(ZoneId.systemDefault()).toInstant()
+            .toEpochMilli();
     }
 
     /** Implements gitlet log functionality.
@@ -416,75 +1009,148 @@ public class Main {
      *   along the commit tree until the initial commit,
      *   following the first parent commit links,
      *   ignoring any second parents found in merge commits.
+     * Commits made after UNTIL are passed over, the walk stops at the
+     * first one made before SINCE, and of the rest the first SKIP are
+     * passed over and at most LIMIT are shown. The chain and timestamps
+     * come from the commit graph as it is walked, so only the commits
+     * shown are read; a head missing from the graph is added to it
+     * first. Entries are buffered, except that the first screen
+     * is flushed at once, and the walk stops if standard output is
+     * closed, as when piped to head.
+     * @param limit
+     * @param skip
+     * @param since
+     * @param until
      */
-    public static void log() {
-        Work work = deserializeWork();
-        Commit currentCommit = getCurrHeadCommit(work);
-        ArrayList<Commit> currBranchCommitHistory =
-                work.getCurrBranchCommitHistory();
-        SimpleDateFormat dt = new SimpleDateFormat(
-                "EEE MMM d hh:mm:ss yyyy Z", Locale.ENGLISH);
-        while (currentCommit != null) {
-            String logString = "===\ncommit " + getCommitHash(currentCommit);
-            if (currentCommit.isMerge()) {
-                logString += "\nMerge: "
-                        + currentCommit.getPrevHash(0).substring(0, 7)
-                        + " " + currentCommit.getPrevHash(1).substring(0, 7);
+    public static void log(int limit, int skip, long since, long until) {
+        PrintWriter out = bufferedOut();
+        CommitGraph graph = Indexes.GRAPH;
+        Iterator<Integer> chain = graph.firstParents(
+                graph.positionAdding(Repo.REFS.getCurrHeadHash()));
+        int shown = 0;
+        int skipped = 0;
+        while (shown < limit && chain.hasNext()) {
+            int position = chain.next();
+            long time = graph.timestampAt(position);
+            if (time > until) {
+                continue;
+            } else if (time < since) {
+                break;
+            } else if (skipped < skip) {
+                skipped += 1;
+                continue;
+            }
+            out.println(logEntry(deserializeCommit(graph.hashAt(position))));
+            shown += 1;
+            if (shown == LOG_SCREEN) {
+                out.flush();
             }
-            logString += "\nDate: " + dt.format(currentCommit.getTimestamp())
-                    + "\n" + currentCommit.getCommitMessage() + "\n";
-            System.out.println(logString);
-            if (currentCommit.getCommitMessage()
-                    .equals("initial commit")) {
+            if (System.out.checkError()) {
                 break;
             }
-            String hash = currentCommit.getPrevHash(0);
-            currentCommit = deserializeCommit(hash);
         }
+        out.flush();
     }
 
     /** Implements the global-log functionality of gitlet.
-     * Displays information about all commits ever made
-     * in no particular order.
-     */
-    private static void globalLog() {
-        List<String> commits = Utils.plainFilenamesIn(COMMIT_FOLDER);
-        SimpleDateFormat dt = new SimpleDateFormat(
-                "EEE MMM d hh:mm:ss yyyy Z", Locale.ENGLISH);
-        for (String commitHash: commits) {
-            Commit currentCommit = deserializeCommit(commitHash);
-            String logString = "===\ncommit " + getCommitHash(currentCommit);
-            if (currentCommit.isMerge()) {
-                logString += "\nMerge: "
-                        + currentCommit.getPrevHash(0).substring(0, 7)
-                        + " " + currentCommit.getPrevHash(1).substring(0, 7);
+     * Displays information about all commits ever made, in the order
+     * they are stored, or newest first if DATEORDER, the order coming
+     * from the commit graph. Commits are decoded and formatted a batch
+     * at a time in parallel by Workers, bypassing the commit cache, and
+     * written in order through one buffer, so only one batch is held at
+     * a time.
+     * @param dateOrder
+     */
+    private static void globalLog(boolean dateOrder) {
+        List<String> commits;
+        if (dateOrder) {
+            List<Integer> positions = Indexes.GRAPH.positionsByTimestamp();
+            commits = new AbstractList<>() {
+                @Override
+                public String get(int index) {
+                    return Indexes.GRAPH.hashAt(positions.get(index));
+                }
+
+                @Override
+                public int size() {
+                    return positions.size();
+                }
+            };
+        } else {
+            commits = Repo.COMMITS.allIds();
+        }
+        PrintWriter out = bufferedOut();
+        for (int i = 0; i < commits.size(); i += LOG_BATCH) {
+            List<String> batch =
+                commits.subList(i, Math.min(commits.size(), i + LOG_BATCH));
+            for (String entry: Workers.map(batch,
+                    hash -> logEntry(decodeCommit(Repo.COMMITS, Repo.TREES,
+                            hash)))) {
+                out.println(entry);
             }
-            logString += "\nDate: " + dt.format(currentCommit.getTimestamp())
-                    + "\n" + currentCommit.getCommitMessage() + "\n";
-            System.out.println(logString);
         }
+        out.flush();
+    }
+
+    /** Returns the log entry of commit C, without its final newline.
+     * @param c
+     * @return
+     */
+    private static String logEntry(Commit c) {
+        StringBuilder entry = new StringBuilder("===\ncommit ")
+            .append(c.getId());
+        if (c.isMerge()) {
+            entry.append("\nMerge: ").append(c.getPrevHash(0), 0, 7)
+                .append(' ').append(c.getPrevHash(1), 0, 7);
+        }
+        return entry.append("\nDate: ")
+            .append(LogDate.FORMAT.format(c.getTimestamp().toInstant()))
+            .append('\n').append(c.getCommitMessage()).append('\n')
+            .toString();
+    }
+
+    /** Returns a writer to standard output with a large buffer, which
+     * must be flushed.
+     * @return
+     */
+    private static PrintWriter bufferedOut() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                System.out, StandardCharsets.UTF_8), OUT_BUFFER));
     }
 
     /** Implements find functionlity of gitlet.
      * Prints out the ids of all commits that have
-     * the given COMMITMESSAGE.
+     * the given COMMITMESSAGE, in order, from the message index.
      * @param commitMessage
      */
     private static void find(String commitMessage) {
-        List<String> commits = Utils.plainFilenamesIn(COMMIT_FOLDER);
-        int count = 0;
-        for (String commitHash: commits) {
-            Commit currentCommit = deserializeCommit(commitHash);
-            String message = currentCommit.getCommitMessage();
-            if (message.equals(commitMessage)) {
-                count += 1;
-                System.out.println(commitHash);
-            }
-        }
-        if (count == 0) {
-            System.out.println("Found no commit with that message.");
-            return;
-        }
+        printFound(action ->
+                Indexes.MESSAGES.withMessage(commitMessage, action));
+    }
+
+    /** Implements find --grep: prints out the ids of all commits whose
+     * message contains TEXT, in order, from the message index.
+     * @param text
+     */
+    private static void findContaining(String text) {
+        printFound(action -> Indexes.MESSAGES.containing(text, action));
+    }
+
+    /** Print each commit id SEARCH passes to the action it is given,
+     * through one buffer, or a message if there is none.
+     * @param search
+     */
+    private static void printFound(Consumer<Consumer<String>> search) {
+        PrintWriter out = bufferedOut();
+        int[] count = {0};
+        search.accept(hash -> {
+            count[0] += 1;
+            out.println(hash);
+        });
+        if (count[0] == 0) {
+            out.println("Found no commit with that message.");
+        }
+        out.flush();
     }
 
     /** Implements gitlet checkout functionality.
@@ -492,25 +1158,26 @@ public class Main {
      * @param fileName
      */
     private static void checkout(String fileName) {
-        Work work = deserializeWork();
-        Commit head = getCurrHeadCommit(work);
-        filteredCheckout(head, fileName);
+        filteredCheckout(getCurrHeadCommit(), workingPath(fileName));
     }
 
-    /** Find full commit id given ABBREV.
+    /** Find full commit id given ABBREV, by binary search in the
+     * commit graph. Prints an error and returns null if no commit id,
+     * or more than one, starts with ABBREV.
      * @param abbrev
      * @return
      */
     private static String getFullCommitId(String abbrev) {
-        List<String> fullCommitID = Utils.plainFilenamesIn(COMMIT_FOLDER);
-        String completeCommitID = null;
-        for (String fullID: fullCommitID) {
-            if (fullID.substring(0, abbrev.length()).equals(abbrev)) {
-                completeCommitID = fullID;
-                break;
-            }
+        List<String> fullCommitID = Indexes.GRAPH.idsWithPrefix(abbrev, 2);
+        if (fullCommitID.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        } else if (fullCommitID.size() > 1) {
+            System.out.println("More than one commit has an id starting"
+                    + " with " + abbrev + ".");
+            return null;
         }
-        return  completeCommitID;
+        return fullCommitID.get(0);
     }
 
     /** Implements gitlet checkout functionality.
@@ -521,20 +1188,24 @@ public class Main {
     private static void checkout(String commitID, String fileName) {
         String completeCommitID = getFullCommitId(commitID);
         if (completeCommitID == null) {
-            System.out.println("No commit with that id exists.");
             return;
         }
         Commit commit = deserializeCommit(completeCommitID);
-        filteredCheckout(commit, fileName);
+        filteredCheckout(commit, workingPath(fileName));
     }
 
-    /** Overwrite file FILENAME in working folder with F.
+    /** Overwrite file FILENAME in working folder with F, creating
+     * the directories it is in if needed, and record its new stat data
+     * in STAGE.
+     * @param stage
      * @param f
      */
-    private static void overwriteWorking(FileReference f) {
-        Utils.writeContents(Utils.join(Main.CWD, f.getFileName()),
-                Utils.readContentsAsString(
-                        deserializeBlob(f.getReferenceHash())));
+    private static void overwriteWorking(StagingArea stage,
+                                         FileReference f) {
+        File dest = Utils.join(Main.CWD, f.getFileName());
+        dest.getParentFile().mkdirs();
+        writeBlob(f.getReferenceHash(), dest);
+        stage.recordWorking(f.getFileName(), f.getReferenceHash());
     }
 
     /** Help loop through COMMIT FILENAME.
@@ -542,61 +1213,106 @@ public class Main {
      * @param fileName
      */
     private static void filteredCheckout(Commit commit, String fileName) {
-        Work work = deserializeWork();
-        StagingArea stage = work.getStagingArea();
-        ArrayList<FileReference> tracked = commit.getReferenceFiles();
-        if (commit.filteredReferenceFile(fileName) == null) {
+        FileReference f = fileName == null ? null
+                : commit.filteredReferenceFile(fileName);
+        if (f == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        for (FileReference f: tracked) {
-            if (f.getFileName().equals(fileName)) {
-                overwriteWorking(f);
-                break;
-            }
-        }
+        StagingArea stage = deserializeStage();
+        overwriteWorking(stage, f);
         stage.cancelStagedAddition(fileName);
-        serializeWork(work);
+        serializeStage(stage);
     }
 
-    /** Delete files in CWD corresponding to F.
-     * @param f
+    /** Delete file FILENAME in CWD, along with the directories it
+     * leaves empty.
+     * @param fileName
      */
-    private static void deleteWorking(FileReference f) {
-        if (Utils.join(Main.CWD, f.getFileName()).exists()) {
-            Utils.restrictedDelete(Utils.join(Main.CWD, f.getFileName()));
+    private static void deleteWorking(String fileName) {
+        File file = Utils.join(Main.CWD, fileName);
+        if (file.isFile()) {
+            Utils.deletePruning(file, Main.CWD);
         }
     }
 
-    /** Check if there is an untracked file
-     * in the current head commit CURR
-     * with respect to PREV.
-     * @param prev
-     * @param curr
+    /** Check if there is an untracked file in the way of CHANGES,
+     * the differences between the current head commit and the commit
+     * being checked out: a file the current head does not track that
+     * the other commit would write over.
+     * @param changes
      * @return
      */
-    private static boolean isDiffTracked(Commit prev, Commit curr) {
+    private static boolean isDiffTracked(List<Tree.Change> changes) {
         boolean diff = false;
-        ArrayList<String> prevRefNames = prev.getAllRefNames();
-        ArrayList<String> currRefNames = curr.getAllRefNames();
-        for (String prevName: prevRefNames) {
-            if (Utils.join(Main.CWD, prevName).exists()) {
-                int search = 0;
-                if (curr.filteredReferenceFile(prevName) != null) {
-                    search += 1;
-                    break;
-                }
-                if (search == 0) {
-                    System.out.println("There is an untracked "
-                            + "file in the way; "
-                            + "delete it, or add and commit it first.");
-                    return !diff;
-                }
+        for (Tree.Change c: changes) {
+            if (c.getBefore() == null && c.getAfter() != null
+                    && Utils.join(Main.CWD, c.getPath()).exists()) {
+                System.out.println("There is an untracked "
+                        + "file in the way; "
+                        + "delete it, or add and commit it first.");
+                return !diff;
             }
         }
         return diff;
     }
 
+    /** Update the working files tracked by the current head commit to
+     * those of the commit being checked out, by applying CHANGES, the
+     * differences between the two, and record their new stat data in
+     * STAGE. Files the same in both commits are not touched.
+     * @param stage
+     * @param changes
+     */
+    private static void switchWorking(StagingArea stage,
+                                      List<Tree.Change> changes) {
+        ArrayList<String> removed = new ArrayList<>();
+        for (Tree.Change c: changes) {
+            if (c.getAfter() == null) {
+                deleteWorking(c.getPath());
+                removed.add(c.getPath());
+            }
+        }
+        for (Tree.Change c: changes) {
+            if (c.getAfter() != null) {
+                overwriteWorking(stage, new FileReference(
+                        new File(c.getPath()), c.getPath(), c.getAfter()));
+            }
+        }
+        stage.forgetWorking(removed);
+    }
+
+    /** Overwrite the working files tracked by commit C that are missing
+     * or differ from C, other than those in CHANGES, which switchWorking
+     * writes. Their stat data keeps unchanged files from being read.
+     * @param stage
+     * @param c
+     * @param changes
+     */
+    private static void restoreWorking(StagingArea stage, Commit c,
+                                       List<Tree.Change> changes) {
+        HashSet<String> changed = new HashSet<>();
+        for (Tree.Change change: changes) {
+            changed.add(change.getPath());
+        }
+        ArrayList<FileReference> kept = new ArrayList<>();
+        ArrayList<String> present = new ArrayList<>();
+        for (FileReference f: c.getReferenceFiles()) {
+            if (!changed.contains(f.getFileName())) {
+                kept.add(f);
+                if (Utils.join(CWD, f.getFileName()).isFile()) {
+                    present.add(f.getFileName());
+                }
+            }
+        }
+        Map<String, String> hashes = stage.getWorkingHashes(present);
+        for (FileReference f: kept) {
+            if (!f.getReferenceHash().equals(hashes.get(f.getFileName()))) {
+                overwriteWorking(stage, f);
+            }
+        }
+    }
+
     /** Check if the given branch exists, and whether it is the
      * current branch BRANCHNAME MESSAGE1 MESSAGE2.
      * @param branchName
@@ -606,11 +1322,10 @@ public class Main {
     public static boolean checkBranchExceptions(
             String branchName, String message1, String message2) {
         boolean error = false;
-        Work work = deserializeWork();
-        if (work.filteredBranch(branchName) == null) {
+        if (!Repo.REFS.hasBranch(branchName)) {
             System.out.println(message1);
             return !error;
-        } else if (work.getCurrBranch().equals(branchName)) {
+        } else if (Repo.REFS.getCurrBranch().equals(branchName)) {
             System.out.println(message2);
             return !error;
         }
@@ -618,6 +1333,9 @@ public class Main {
     }
 
     /** Implements gitlet checkout functionality. Checks out BRANCHNAME.
+     * Files that differ between the two heads are found by comparing
+     * their trees, and the other files the branch head tracks are only
+     * rewritten if they were changed in the working directory.
      * @param branchName
      */
     private static void checkoutBranch(String branchName) {
@@ -626,24 +1344,20 @@ public class Main {
         if (checkBranchExceptions(branchName, message1, message2)) {
             return;
         }
-        Work work = deserializeWork();
-        Commit head = getCurrHeadCommit(work);
-        ArrayList<FileReference> tracked = head.getReferenceFiles();
-        String branchHash = work.getHeadHash(branchName);
+        Commit head = getCurrHeadCommit();
+        String branchHash = Repo.REFS.getHeadHash(branchName);
         Commit branchHead = deserializeCommit(branchHash);
-        ArrayList<FileReference> branchHeadTracked =
-                branchHead.getReferenceFiles();
-        isDiffTracked(branchHead, head);
-        for (FileReference currBlob: tracked) {
-            deleteWorking(currBlob);
-        }
-        for (FileReference branchBlob: branchHeadTracked) {
-            overwriteWorking(branchBlob);
+        List<Tree.Change> changes =
+                Tree.diff(Repo.TREES, treeOf(head), treeOf(branchHead));
+        if (isDiffTracked(changes)) {
+            return;
         }
-        work.getStagingArea().deleteAllStage();
-        work.setCurrBranch(branchName);
-        work.setCurrHeadHash(branchHash);
-        serializeWork(work);
+        StagingArea stage = deserializeStage();
+        restoreWorking(stage, branchHead, changes);
+        switchWorking(stage, changes);
+        stage.deleteAllStage();
+        serializeStage(stage);
+        Repo.REFS.setCurrBranch(branchName);
     }
 
     /** Gitlet status functionality.
@@ -652,29 +1366,27 @@ public class Main {
      * Also displays what files have been staged for addition or removal.
      */
     private static void status() {
-        Work work = deserializeWork();
-        branchStatus(work);
-        additionStatus(work);
-        removalStatus(work);
-        modifiedStatus(work);
-        untrackedStatus(work);
+        StagingArea stage = deserializeStage();
+        Commit head = getCurrHeadCommit();
+        branchStatus();
+        additionStatus(stage);
+        removalStatus(stage);
+        modifiedStatus(head, stage);
+        untrackedStatus(head, stage);
+        if (stage.isWorkingChanged()) {
+            serializeStage(stage);
+        }
     }
 
-    /** Prints out status of branches WORK.
-     * @param work
-     */
-    private static void branchStatus(Work work) {
-        ArrayList<CommitBranch> branches = work.getBranches();
-        String[] branchHolder = new String[branches.size()];
-        int index = 0;
-        for (CommitBranch b: branches) {
-            branchHolder[index] = b.getBranchName();
-            index += 1;
-        }
+    /** Prints out status of branches. */
+    private static void branchStatus() {
+        List<String> branches = Repo.REFS.getBranches();
+        String[] branchHolder = branches.toArray(new String[0]);
         Arrays.sort(branchHolder, String.CASE_INSENSITIVE_ORDER);
+        String currBranch = Repo.REFS.getCurrBranch();
         System.out.println("=== Branches ===");
         for (String b: branchHolder) {
-            if (b.equals(work.getCurrBranch())) {
+            if (b.equals(currBranch)) {
                 System.out.print("*");
             }
             System.out.println(b);
@@ -683,33 +1395,33 @@ public class Main {
     }
 
     /** Prints out status of addition area
-     * (staged files) WORK.
-     * @param work
+     * (staged files) STAGE.
+     * @param stage
      */
-    private static void additionStatus(Work work) {
-        stageStatus("Staged Files", work);
+    private static void additionStatus(StagingArea stage) {
+        stageStatus("Staged Files", stage);
     }
 
     /** Prints out status of removal area
-     * (files that are staged for removal) WORK.
-     * @param work
+     * (files that are staged for removal) STAGE.
+     * @param stage
      */
-    private static void removalStatus(Work work) {
-        stageStatus("Removed Files", work);
+    private static void removalStatus(StagingArea stage) {
+        stageStatus("Removed Files", stage);
     }
 
     /** Sorts files in the staging area and prints them out
-     * PLACE WORK.
-     *  PLACE AND WORK.
+     * PLACE STAGE.
+     *  PLACE AND STAGE.
      * @param place
-     * @param work
+     * @param stage
      */
-    private static void stageStatus(String place, Work work) {
+    private static void stageStatus(String place, StagingArea stage) {
         ArrayList<String> area = null;
         if (place.equals("Staged Files")) {
-            area = work.getStagingArea().getAdditionArea();
+            area = stage.getAdditionArea();
         } else {
-            area = work.getStagingArea().getRemovalArea();
+            area = stage.getRemovalArea();
         }
         String[] stagedFiles = new String[area.size()];
         int index = 0;
@@ -726,15 +1438,16 @@ public class Main {
     }
 
     /** Sorts names of file that are, according to definition on the spec,
-     * modified WORK.
-     * @param work
+     * modified with respect to HEAD and STAGE.
+     * @param head
+     * @param stage
      */
-    private static void modifiedStatus(Work work) {
-        Commit head = getCurrHeadCommit(work);
+    private static void modifiedStatus(Commit head, StagingArea stage) {
         ArrayList<FileReference> ref = head.getReferenceFiles();
-        StagingArea stage = work.getStagingArea();
         ArrayList<String> additionArea = stage.getAdditionArea();
         ArrayList<String> modified = new ArrayList<>();
+        ArrayList<FileReference> unstaged = new ArrayList<>();
+        ArrayList<String> present = new ArrayList<>();
         for (FileReference r: ref) {
             String rFileName = r.getFileName();
             if (!Utils.join(CWD, rFileName).exists()) {
@@ -744,21 +1457,27 @@ public class Main {
                 }
             } else if (stage.filteredAddition(r.getFileName()) == null
                     && stage.filteredRemoval(r.getFileName()) == null) {
-                String hash = getFileHash(Utils.join(CWD, rFileName));
-                if (!r.getReferenceHash().equals(hash)) {
-                    modified.add(rFileName + " (modified)");
-                }
+                unstaged.add(r);
+                present.add(rFileName);
             }
         }
+        ArrayList<String> stagedPresent = new ArrayList<>();
         for (String add: additionArea) {
-            File staged = stage.getStagedAdditionFile(add);
-            File workFile = Utils.join(CWD, add);
-            if (!workFile.exists()) {
+            if (!Utils.join(CWD, add).exists()) {
                 modified.add(add + " (deleted)");
-                continue;
+            } else {
+                stagedPresent.add(add);
+                present.add(add);
+            }
+        }
+        Map<String, String> hashes = stage.getWorkingHashes(present);
+        for (FileReference r: unstaged) {
+            if (!r.getReferenceHash().equals(hashes.get(r.getFileName()))) {
+                modified.add(r.getFileName() + " (modified)");
             }
-            String hash = getFileHash(workFile);
-            if (!getFileHash(staged).equals(hash)) {
+        }
+        for (String add: stagedPresent) {
+            if (!stage.getStagedHash(add).equals(hashes.get(add))) {
                 modified.add(add + " (modified)");
             }
         }
@@ -771,16 +1490,17 @@ public class Main {
         System.out.print("\n");
     }
 
-    /** Sorts files that are untracked and print them out WORK.
-     * @param work
+    /** Sorts files that are untracked by HEAD and STAGE
+     * and print them out.
+     * @param head
+     * @param stage
      */
-    private static void untrackedStatus(Work work) {
-        Commit head = getCurrHeadCommit(work);
-        StagingArea stage = work.getStagingArea();
-        List<String> workFiles = Utils.plainFilenamesIn(CWD);
+    private static void untrackedStatus(Commit head, StagingArea stage) {
+        List<String> workFiles = Utils.plainFilenamesUnder(CWD);
+        Map<String, String> tracked = head.getManifest();
         ArrayList<String> untracked = new ArrayList<>();
         for (String w: workFiles) {
-            if (head.filteredReferenceFile(w) == null
+            if (!tracked.containsKey(w)
                     && stage.filteredAddition(w) == null) {
                 untracked.add(w);
             }
@@ -797,13 +1517,11 @@ public class Main {
      * BRANCHNAME.
      * @param branchName*/
     private static void branch(String branchName) {
-        Work work = deserializeWork();
-        if (work.filteredBranch(branchName) != null) {
+        if (Repo.REFS.hasBranch(branchName)) {
             System.out.println("A branch with that name already exists.");
             return;
         }
-        work.addBranchHash(branchName, getCommitHash(getCurrHeadCommit(work)));
-        serializeWork(work);
+        Repo.REFS.addBranchHash(branchName, Repo.REFS.getCurrHeadHash());
     }
 
     /** Deletes the branch with the given name.
@@ -815,322 +1533,243 @@ public class Main {
     private static void rmBranch(String branchName) {
         String message1 = "A branch with that name does not exist.";
         String message2 = "Cannot remove the current branch.";
-        checkBranchExceptions(branchName, message1, message2);
-        Work work = deserializeWork();
-        work.removeBranch(branchName);
-        serializeWork(work);
+        if (checkBranchExceptions(branchName, message1, message2)) {
+            return;
+        }
+        Repo.REFS.removeBranch(branchName);
     }
 
     /** Checks out all the files tracked by the given commit.
      * Removes tracked files that are not present in that commit.
+     * Files that differ between the two commits are found by comparing
+     * their trees, and the rest are only rewritten if they were changed
+     * in the working directory.
      * Also moves the current branch's head to that commit node
      * COMMITID.
      * @param commitHash*/
     private static void reset(String commitId) {
-        Work work = deserializeWork();
-        Commit head = getCurrHeadCommit(work);
-        ArrayList<FileReference> currTracked = head.getReferenceFiles();
-        ArrayList<String> currRefNames = head.getAllRefNames();
+        Commit head = getCurrHeadCommit();
         String fullId = getFullCommitId(commitId);
         if (fullId == null) {
-            System.out.println("No commit with that id exists.");
             return;
         }
         Commit prev = deserializeCommit(fullId);
-        ArrayList<FileReference> prevTracked = prev.getReferenceFiles();
-        ArrayList<String> prevRefNames = prev.getAllRefNames();
-        if (isDiffTracked(prev, head)) {
+        List<Tree.Change> changes =
+                Tree.diff(Repo.TREES, treeOf(head), treeOf(prev));
+        if (isDiffTracked(changes)) {
             return;
         }
-        for (FileReference currBlob: currTracked) {
-            deleteWorking(currBlob);
-        }
-        for (FileReference prevBlob: prevTracked) {
-            overwriteWorking(prevBlob);
-        }
-        for (String currName: currRefNames) {
-            for (String prevNames: prevRefNames) {
-                if (prev.filteredReferenceFile(currName) == null) {
-                    head.removeReferenceFile(currName);
-                }
-            }
-        }
-        work.setCurrHeadHash(fullId);
-        work.setCurrBranchHash(fullId);
-        work.getStagingArea().deleteAllStage();
-        serializeWork(work);
+        StagingArea stage = deserializeStage();
+        restoreWorking(stage, prev, changes);
+        switchWorking(stage, changes);
+        Repo.REFS.setCurrBranchHash(fullId);
+        stage.deleteAllStage();
+        serializeStage(stage);
     }
 
-    /** Find the split point of divergence of two branches
-     * to be merged BRANCHNAME.
+    /** Find the split point of the current branch and branch
+     * BRANCHNAME: their best common ancestor, as found by MergeBase on
+     * the commit graph.
      * @param branchName
      * @return
      */
     public static String findSplitPoint(String branchName) {
-        Work work = deserializeWork();
-        String splitPoint = null;
-        ArrayDeque<String> workQueue = new ArrayDeque<>();
-        ArrayList<String> branchCommits = new ArrayList<>();
-        String headCommit = getCommitHash(getCurrHeadCommit(work));
-        String branchCommit = work.getHeadHash(branchName);
-        workQueue.addLast(branchCommit);
-        while (workQueue.size() > 0) {
-            String commit = workQueue.removeFirst();
-            branchCommits.add(commit);
-            Commit commitObj = deserializeCommit(commit);
-            LinkedList<String> prev = commitObj.getAllParentCommit();
-            for (String parent: prev) {
-                workQueue.addLast(parent);
-            }
-        }
-        workQueue.addLast(headCommit);
-        while (workQueue.size() > 0) {
-            String commit = workQueue.removeLast();
-            if (branchCommits.contains(commit)) {
-                splitPoint = commit;
-                break;
-            } else {
-                Commit commitObj = deserializeCommit(commit);
-                LinkedList<String> prev = commitObj.getAllParentCommit();
-                for (String parent: prev) {
-                    workQueue.addLast(parent);
-                }
-            }
-        }
-        return splitPoint;
+        String headCommit = Repo.REFS.getCurrHeadHash();
+        String branchCommit = Repo.REFS.getHeadHash(branchName);
+        return MergeBase.find(Indexes.GRAPH, headCommit, branchCommit);
     }
 
-    /** Check failure cases for merge WORK
-     * BRANCHNAME.
+    /** Check failure cases for merge of BRANCHNAME into the current
+     * branch with staging area STAGE.
+     * @param stage
      * @param branchName
      * @return
      */
-    public static boolean checkMergeExceptions(Work work, String branchName) {
+    public static boolean checkMergeExceptions(StagingArea stage,
+                                               String branchName) {
         boolean error = false;
         String message1 = "A branch with that name does not exist.";
         String message2 = "Cannot merge a branch with itself.";
         if (checkBranchExceptions(branchName, message1, message2)) {
             return !error;
         }
-        StagingArea stage = work.getStagingArea();
         if (stage.getAdditionArea().size() > 0
                 || stage.getRemovalArea().size() > 0) {
             System.out.println("You have uncommitted changes.");
             return !error;
         }
-        String branchHeadHash = work.getHeadHash(branchName);
-        Commit currHead = getCurrHeadCommit(work);
-        String currHeadHash = getCommitHash(currHead);
-        isDiffTracked(deserializeCommit(branchHeadHash),
-                currHead);
-        String splitPoint = findSplitPoint(branchName);
+        String branchHeadHash = Repo.REFS.getHeadHash(branchName);
+        String currHeadHash = Repo.REFS.getCurrHeadHash();
+        Commit currHead = deserializeCommit(currHeadHash);
+        if (isDiffTracked(Tree.diff(Repo.TREES, treeOf(currHead),
+                treeOf(deserializeCommit(branchHeadHash))))) {
+            return !error;
+        }
+        return error;
+    }
+
+    /** Handle the merges of branch BRANCHNAME, whose split point with
+     * the current branch is SPLITPOINT, that need no merge commit.
+     * Returns true if the merge is done.
+     * @param branchName
+     * @param splitPoint
+     * @return
+     */
+    public static boolean checkMergeAncestry(String branchName,
+                                             String splitPoint) {
+        String branchHeadHash = Repo.REFS.getHeadHash(branchName);
+        String currHeadHash = Repo.REFS.getCurrHeadHash();
         if (splitPoint.equals(branchHeadHash)) {
             System.out.println("Given branch is an ancestor of "
                     + "the current branch.");
-            return !error;
+            return true;
         } else if (splitPoint.equals(currHeadHash)) {
-            String currBranch = work.getCurrBranch();
+            String currBranch = Repo.REFS.getCurrBranch();
             checkoutBranch(branchName);
-            work = deserializeWork();
-            work.setCurrBranch(currBranch);
-            serializeWork(work);
+            Repo.REFS.setCurrBranch(currBranch);
+            Repo.REFS.setCurrBranchHash(branchHeadHash);
             System.out.println("Current branch fast-forwarded.");
-            return !error;
+            return true;
         }
-        return error;
+        return false;
     }
 
     /** Commit merged files given by merge command
-     * WORK BRANCHNAME PREVHASH CURRNAME CURRHASH.
+     * STAGE BRANCHNAME BRANCHHEAD CURRNAME CURRHEAD.
+     * @param stage
      * @param branchName
-     * @param prevHash
+     * @param branchHead
      * @param currName
-     * @param currHash
+     * @param currHead
      */
-    public static void mergeCommit(Work work,
-                                   String branchName, String prevHash,
-                                   String currName, String currHash) {
-        Commit currHead = getCurrHeadCommit(work);
-        ArrayList<FileReference> currTracked = currHead.getReferenceFiles();
+    public static void mergeCommit(StagingArea stage,
+                                   String branchName, Commit branchHead,
+                                   String currName, Commit currHead) {
         Commit merged = new Commit("Merged " + branchName + " into "
                 + currName + ".");
-        merged.addPrevHash(currHash);
-        merged.addPrevHash(prevHash);
-        merged.setReferenceFiles(currTracked);
-        StagingArea stage = work.getStagingArea();
-        ArrayList<String> additionArea = stage.getAdditionArea();
+        merged.addPrevHash(currHead.getId());
+        merged.addPrevHash(branchHead.getId());
         ArrayList<String> removalArea = stage.getRemovalArea();
-        for (String fileName: additionArea) {
-            File stagedFile = stage.getStagedAdditionFile(fileName);
-            String fileHash = getFileHash(stagedFile);
-            FileReference oldVersion = merged.filteredReferenceFile(fileName);
-            if (oldVersion != null) {
-                oldVersion.updateVersion();
-            }
-            merged.addReferenceFiles(stagedFile, fileName, fileHash);
-            serializeBlob(stagedFile);
-        }
+        merged.setTree(commitTree(stage, currHead), Repo.TREES);
         for (String fileName: removalArea) {
-            merged.removeReferenceFile(fileName);
-            Utils.restrictedDelete(Utils.join(CWD, fileName));
+            deleteWorking(fileName);
         }
+        stage.forgetWorking(removalArea);
         stage.deleteAllStage();
-        work.updateCurrBranchCommitHistory(merged);
-        serializeCommit(merged);
-        work.setCurrHeadHash(getCommitHash(merged));
-        work.addBranchHash(work.getCurrBranch(), getCommitHash(merged));
-    }
-
-    /** Lists all possible states of a merge
-     * and apply actions needed
-     * repectively WORK ALLFILENAMES SPLIT SPLITPOINT
-     * HEAD HEADHASH BRANCHHEAD BRANCHHASH.
-     * @param work
-     * @param allFileNames
-     * @param split
-     * @param splitPoint
-     * @param head
-     * @param headHash
-     * @param branchHead
-     * @param branchHash
-     */
-    public static void mergeCases(Work work, ArrayList<String> allFileNames,
-                                  Commit split, String splitPoint,
-                                  Commit head, String headHash,
-                                  Commit branchHead, String branchHash) {
-        StagingArea stage = work.getStagingArea();
-        for (String fileName: allFileNames) {
-            if (_usedNames.contains(fileName)) {
+        Repo.REFS.setCurrBranchHash(serializeCommit(merged));
+    }
+
+    /** Apply the merge action each of CHANGES, the files the given
+     * branch changed since the split point, needs to STAGE. A file the
+     * current branch left as it was at the split point is taken from
+     * the given branch, one both branches changed the same way is kept,
+     * and one they changed differently is a conflict.
+     * @param stage
+     * @param changes
+     */
+    public static void mergeCases(StagingArea stage,
+                                  List<Tree.ThreeWay> changes) {
+        for (Tree.ThreeWay c: changes) {
+            String base = c.getBase();
+            String ours = c.getOurs();
+            String theirs = c.getTheirs();
+            if (Objects.equals(ours, theirs) || Objects.equals(theirs, base)) {
                 continue;
             }
-            _usedNames.add(fileName);
-            FileReference splitRef = split.filteredReferenceFile(fileName);
-            FileReference headRef = head.filteredReferenceFile(fileName);
-            FileReference brHRef = branchHead.filteredReferenceFile(fileName);
-            if (splitRef != null && headRef != null && brHRef != null
-                    && headRef.equals(splitRef) && !brHRef.equals(splitRef)) {
-                mergeAction(work, stage, "checkout",
-                        branchHash, brHRef, headRef);
-            } else if (splitRef != null && headRef != null && brHRef != null
-                    && !headRef.equals(splitRef) && brHRef.equals(splitRef)) {
-                continue;
-            } else if (splitRef != null && headRef == null && brHRef == null) {
-                continue;
-            } else if (splitRef != null && headRef != null && brHRef == null
-                    && headRef.equals(splitRef)) {
-                mergeAction(work, stage, "remove",
-                        branchHash, brHRef, headRef);
-            } else if (splitRef != null && headRef == null && brHRef != null
-                    && splitRef.equals(brHRef)) {
-                continue;
-            } else if (splitRef != null && headRef != null && brHRef != null
-                    && !headRef.equals(splitRef) && !brHRef.equals(splitRef)
-                    && headRef.equals(brHRef)) {
-                continue;
-            } else if (splitRef == null && headRef == null && brHRef != null) {
-                mergeAction(work, stage, "checkout",
-                        branchHash, brHRef, headRef);
-            } else if (splitRef == null && headRef != null && brHRef == null) {
-                continue;
-            } else if (splitRef != null && headRef != null && brHRef != null
-                    && headRef.equals(splitRef) && brHRef.equals(headRef)) {
-                continue;
-            } else if (splitRef != null && headRef != null && brHRef != null
-                    && !headRef.equals(splitRef) && !brHRef.equals(splitRef)
-                    && !headRef.equals(brHRef)) {
-                mergeAction(work, stage, "conflict",
-                        branchHash, brHRef, headRef);
-            } else if (splitRef != null && headRef != null && brHRef == null
-                    && !headRef.equals(splitRef)) {
-                mergeAction(work, stage, "conflict",
-                        branchHash, brHRef, headRef);
-            } else if (splitRef != null && brHRef != null
-                    && headRef == null && !brHRef.equals(splitRef)) {
-                mergeAction(work, stage, "conflict",
-                        branchHash, brHRef, headRef);
-            } else if (splitRef == null && headRef != null && brHRef != null
-                    && !headRef.equals(brHRef)) {
-                mergeAction(work, stage, "conflict",
-                        branchHash, brHRef, headRef);
+            FileReference headRef = fileReference(c.getPath(), ours);
+            FileReference brHRef = fileReference(c.getPath(), theirs);
+            if (!Objects.equals(ours, base)) {
+                mergeAction(stage, "conflict", brHRef, headRef);
+            } else if (theirs == null) {
+                mergeAction(stage, "remove", brHRef, headRef);
+            } else {
+                mergeAction(stage, "checkout", brHRef, headRef);
             }
         }
-        serializeWork(work);
+    }
+
+    /** Returns a reference to blob HASH as file PATH, or null if HASH
+     * is null.
+     * @param path
+     * @param hash
+     * @return
+     */
+    private static FileReference fileReference(String path, String hash) {
+        return hash == null ? null
+            : new FileReference(new File(path), path, hash);
     }
 
     /** Apply merge actions to different cases
      * determined by mergeCases
-     * WORK STAGE ACTION BRANCHHASH BRANCHHEADREF
+     * STAGE ACTION BRANCHHEADREF
      * HEADREF.
      * @param stage
      * @param action
-     * @param branchHash
      * @param branchHeadRef
      * @param headRef
      */
-    public static void mergeAction(Work work,
-                                   StagingArea stage,
+    public static void mergeAction(StagingArea stage,
                                    String action,
-                                   String branchHash,
                                    FileReference branchHeadRef,
                                    FileReference headRef) {
         if (action.equals("checkout")) {
-            checkout(branchHash, branchHeadRef.getFileName());
-            stage.stageForAddition(branchHeadRef.getFileName());
+            overwriteWorking(stage, branchHeadRef);
+            stage.stageForAddition(branchHeadRef.getFileName(),
+                    branchHeadRef.getReferenceHash());
         } else if (action.equals("remove")) {
             stage.stageForRemoval(headRef.getFileName());
         } else if (action.equals("conflict")) {
             String ret = "<<<<<<< HEAD\n";
             String headContent = "";
             if (headRef != null) {
-                headContent = Utils.readContentsAsString(
-                        deserializeBlob(headRef.getReferenceHash()));
+                headContent = new String(deserializeBlob(
+                        headRef.getReferenceHash()), StandardCharsets.UTF_8);
             }
             String branchHeadContent = "";
             if (branchHeadRef != null) {
-                branchHeadContent = Utils.readContentsAsString(
-                        deserializeBlob(branchHeadRef.getReferenceHash()));
+                branchHeadContent = new String(deserializeBlob(
+                        branchHeadRef.getReferenceHash()),
+                        StandardCharsets.UTF_8);
             }
             ret += headContent + "=======\n" + branchHeadContent + ">>>>>>>\n";
-            Utils.writeContents(new File(headRef.getFileName()), ret);
-            stage.stageForAddition(headRef.getFileName());
+            String fileName = headRef != null ? headRef.getFileName()
+                    : branchHeadRef.getFileName();
+            byte[] contents = ret.getBytes(StandardCharsets.UTF_8);
+            Utils.writeContents(Utils.join(CWD, fileName), contents);
+            String hash = storeBlob(contents,
+                    headRef != null ? headRef.getReferenceHash() : null);
+            stage.recordWorking(fileName, hash);
+            stage.stageForAddition(fileName, hash);
             System.out.println("Encountered a merge conflict.");
         }
     }
 
     /** Gitlet's merge functionality, which merges a branch
-     * with the current branch BRANCHNAME.
+     * with the current branch BRANCHNAME. Only the files the given
+     * branch changed since the split point can need merging, as every
+     * other file is kept as the current branch has it, so only those
+     * are looked at, and subdirectories the given branch left alone are
+     * skipped whole.
      * @param branchName
      */
     public static void merge(String branchName) {
-        Work work = deserializeWork();
-        if (checkMergeExceptions(work, branchName)) {
+        StagingArea stage = deserializeStage();
+        if (checkMergeExceptions(stage, branchName)) {
             return;
         }
         String splitPoint = findSplitPoint(branchName);
-        Commit split = deserializeCommit(splitPoint);
-        ArrayList<FileReference> splitTracked = split.getReferenceFiles();
-        Commit head = getCurrHeadCommit(work);
-        ArrayList<FileReference> headTracked = head.getReferenceFiles();
-        String branchHash = work.getHeadHash(branchName);
-        Commit branchHead = deserializeCommit(branchHash);
-        ArrayList<FileReference> branchHeadTracked =
-                branchHead.getReferenceFiles();
-        ArrayList<String> allFileNames = new ArrayList<>();
-        for (FileReference f: splitTracked) {
-            allFileNames.add(f.getFileName());
-        }
-        for (FileReference f: headTracked) {
-            allFileNames.add(f.getFileName());
-        }
-        for (FileReference f: branchHeadTracked) {
-            allFileNames.add(f.getFileName());
+        if (checkMergeAncestry(branchName, splitPoint)) {
+            return;
         }
-        _usedNames = new ArrayList<>();
-        mergeCases(work, allFileNames, split, splitPoint, head,
-                work.getCurrHeadHash(), branchHead, branchHash);
-        mergeCommit(work, branchName, branchHash,
-                work.getCurrBranch(), work.getCurrHeadHash());
-        serializeWork(work);
+        Commit split = deserializeCommit(splitPoint);
+        Commit head = getCurrHeadCommit();
+        Commit branchHead =
+                deserializeCommit(Repo.REFS.getHeadHash(branchName));
+        mergeCases(stage, Tree.diff3(Repo.TREES, treeOf(split), treeOf(head),
+                treeOf(branchHead)));
+        mergeCommit(stage, branchName, branchHead,
+                Repo.REFS.getCurrBranch(), head);
+        serializeStage(stage);
     }
 
     /** Saves the given login information under the given remote name.
@@ -1141,9 +1780,9 @@ public class Main {
      * @param remoteDir
      */
     public static void addRemote(String remoteName, String remoteDir) {
-        Work work = deserializeWork();
-        work.getRemote().addRemoteDir(remoteName, remoteDir);
-        serializeWork(work);
+        RemoteInfo remotes = deserializeRemotes();
+        remotes.addRemoteDir(remoteName, remoteDir);
+        serializeRemotes(remotes);
     }
 
     /** Remove information associated with the given remote name.
@@ -1154,38 +1793,96 @@ public class Main {
      * @param remoteName
      */
     public static void rmRemote(String remoteName) {
-        Work work = deserializeWork();
-        work.getRemote().removeRemoteDir(remoteName);
-        serializeWork(work);
+        RemoteInfo remotes = deserializeRemotes();
+        remotes.removeRemoteDir(remoteName);
+        serializeRemotes(remotes);
     }
 
-    /** Saves changes to remote work object REMOTEDIR
-     * REMOTEWORK.
+    /** Get the remote commit object
+     * REMOTECOMMITS COMMITHASH, whose tree is in REMOTETREES.
+     * @param remoteCommits
+     * @param remoteTrees
+     * @param commitHash
+     * @return
+     */
+    public static Commit deserializeRemoteCommit(ObjectStore remoteCommits,
+                                                 ObjectStore remoteTrees,
+                                                 String commitHash) {
+        Commit c = Repo.COMMIT_CACHE.get(commitHash);
+        if (c == null) {
+            c = decodeCommit(remoteCommits, remoteTrees, commitHash);
+            Repo.COMMIT_CACHE.put(commitHash, c);
+        }
+        return c;
+    }
+
+    /** Decode commit COMMITHASH of REMOTECOMMITS, whose tree is in
+     * REMOTETREES, without going through the commit cache.
+     * @param remoteCommits
+     * @param remoteTrees
+     * @param commitHash
+     * @return
+     */
+    private static Commit decodeCommit(ObjectStore remoteCommits,
+                                       ObjectStore remoteTrees,
+                                       String commitHash) {
+        byte[] data = ObjectFormat.rawContents(remoteCommits.read(commitHash));
+        Commit c;
+        if (CommitCodec.isEncoded(data)) {
+            c = CommitCodec.decode(data, remoteTrees);
+        } else {
+            c = Utils.deserialize(data, Commit.class);
+        }
+        c.setId(commitHash);
+        return c;
+    }
+
+    /** Get the commit store of the remote repository REMOTEDIR
+     * with packs REMOTEPACKS.
      * @param remoteDir
-     * @param remoteWork
+     * @param remotePacks
+     * @return
      */
-    private static void serializeRemoteWork(File remoteDir, Work remoteWork) {
-        Utils.writeObject(Utils.join(remoteDir, "work"), remoteDir);
+    private static ObjectStore remoteCommits(File remoteDir,
+                                             Packs remotePacks) {
+        return new ObjectStore(Utils.join(remoteDir, "commits"),
+                remotePacks, Pack.COMMIT);
     }
 
-    /** Get the remote work object REMOTEDIR.
+    /** Get the blob store of the remote repository REMOTEDIR
+     * with packs REMOTEPACKS.
      * @param remoteDir
+     * @param remotePacks
      * @return
      */
-    public static Work deserializeRemoteWork(File remoteDir) {
-        return Utils.readObject(Utils.join(remoteDir, "work"), Work.class);
+    private static ObjectStore remoteBlobs(File remoteDir, Packs remotePacks) {
+        return new ObjectStore(Utils.join(remoteDir, "blobs"),
+                remotePacks, Pack.BLOB);
     }
 
-    /** Get the remote commit object
-     * REMOTEDIR COMMITHASH.
+    /** Get the tree store of the remote repository REMOTEDIR
+     * with packs REMOTEPACKS.
      * @param remoteDir
-     * @param commitHash
+     * @param remotePacks
      * @return
      */
-    public static Commit deserializeRemoteCommit(File remoteDir,
-                                                 String commitHash) {
-        return Utils.readObject(Utils.join(
-                Utils.join(remoteDir, "commits"), commitHash), Commit.class);
+    private static ObjectStore remoteTrees(File remoteDir, Packs remotePacks) {
+        return new ObjectStore(Utils.join(remoteDir, "trees"),
+                remotePacks, Pack.TREE);
+    }
+
+    /** Get the commit graph of the remote repository REMOTEDIR
+     * with commits REMOTECOMMITS and trees REMOTETREES.
+     * @param remoteDir
+     * @param remoteCommits
+     * @param remoteTrees
+     * @return
+     */
+    private static CommitGraph remoteGraph(File remoteDir,
+                                           ObjectStore remoteCommits,
+                                           ObjectStore remoteTrees) {
+        return new CommitGraph(remoteDir, remoteCommits,
+            h -> deserializeRemoteCommit(remoteCommits, remoteTrees, h));
     }
 
     /** Attempts to append the current branch's commits
@@ -1195,54 +1892,57 @@ public class Main {
      * @param remoteBranchName
      */
     public static void push(String remoteName, String remoteBranchName) {
-        Work work = deserializeWork();
-        File remoteDir = work.getRemote().getRemoteDir(remoteName);
-        if (!remoteDir.exists()) {
+        File remoteDir = deserializeRemotes().getRemoteDir(remoteName);
+        if (remoteDir == null || !remoteDir.exists()) {
             System.out.println("Remote directory not found.");
             return;
         }
-        boolean inHistory = false;
-        Commit head = getCurrHeadCommit(work);
-        String headHash = getCommitHash(head);
-        Work remoteWork = deserializeRemoteWork(remoteDir);
-        String remoteBranchHeadHash = remoteWork.getHeadHash(remoteBranchName);
-        while (head != null) {
-            if (headHash.equals(remoteBranchHeadHash)) {
-                inHistory = true;
-                break;
-            }
-            if (head.getCommitMessage()
-                    .equals("initial commit")) {
-                break;
-            }
-            String hash = head.getPrevHash(0);
-            head = deserializeCommit(hash);
-        }
-        if (!inHistory) {
+        Refs remoteRefs = new Refs(remoteDir);
+        Packs remotePacks = new Packs(remoteDir);
+        ObjectStore remoteCommits = remoteCommits(remoteDir, remotePacks);
+        String remoteBranchHeadHash = remoteRefs.getHeadHash(remoteBranchName);
+        String headHash = Repo.REFS.getCurrHeadHash();
+        if (remoteBranchHeadHash != null
+                && !isAncestor(remoteBranchHeadHash, headHash)) {
             System.out.println(
                     "Please pull down remote changes before pushing.");
+            return;
         }
-        Commit headCopy = getCurrHeadCommit(work);
-        String headCopyHash = getCommitHash(headCopy);
-        List<String> blobs = Utils.plainFilenamesIn(BLOB_FOLDER);
-        for (String blob: blobs) {
-            overwriteRemoteBlob(remoteDir, blob);
-        }
-        while (!headCopyHash.equals(remoteBranchHeadHash)) {
-            overwriteRemoteCommit(remoteDir, headCopyHash);
-            if (head.getCommitMessage()
-                    .equals("initial commit")) {
-                break;
+        LinkedHashMap<String, List<String>> parents = new LinkedHashMap<>();
+        ArrayDeque<String> workQueue = new ArrayDeque<>();
+        workQueue.addLast(headHash);
+        while (workQueue.size() > 0) {
+            String commit = workQueue.removeFirst();
+            if (parents.containsKey(commit)
+                    || remoteCommits.contains(commit)) {
+                continue;
             }
-            headCopyHash = headCopy.getPrevHash(0);
-            headCopy = deserializeCommit(headCopyHash);
-        }
-        remoteWork.addBranchHash(remoteBranchName, headHash);
-        if (remoteBranchName.equals(MASTER_BRANCH)) {
-            remoteWork.setCurrHeadHash(headHash);
+            parents.put(commit, parentsOf(commit));
+            workQueue.addAll(parents.get(commit));
+        }
+        List<String> missing = parentsFirst(parents);
+        ObjectStore remoteBlobs = remoteBlobs(remoteDir, remotePacks);
+        ObjectStore remoteTrees = remoteTrees(remoteDir, remotePacks);
+        for (String commit: missing) {
+            Commit c = deserializeCommit(commit);
+            if (c.getTree() != null) {
+                copyTree(Repo.TREES, Repo.BLOBS, remoteTrees, remoteBlobs,
+                        c.getTree());
+            } else {
+                for (FileReference f: c.getReferenceFiles()) {
+                    if (!remoteBlobs.contains(f.getReferenceHash())) {
+                        overwriteRemoteBlob(remoteBlobs,
+                                f.getReferenceHash());
+                    }
+                }
+            }
+            overwriteRemoteCommit(remoteCommits, commit);
         }
-        serializeRemoteWork(remoteDir, remoteWork);
-        serializeWork(work);
+        remoteGraph(remoteDir, remoteCommits, remoteTrees).add(missing);
+        new MessageIndex(remoteDir, remoteCommits,
+            h -> deserializeRemoteCommit(remoteCommits, remoteTrees, h))
+            .add(missing);
+        remoteRefs.addBranchHash(remoteBranchName, headHash);
     }
 
     /** Brings down commits from the remote Gitlet repository
@@ -1252,39 +1952,103 @@ public class Main {
      * @param remoteBranchName
      */
     public static void fetch(String remoteName, String remoteBranchName) {
-        Work work = deserializeWork();
-        File remoteDir = work.getRemote().getRemoteDir(remoteName);
-        if (!remoteDir.exists()) {
+        File remoteDir = deserializeRemotes().getRemoteDir(remoteName);
+        if (remoteDir == null || !remoteDir.exists()) {
             System.out.println("Remote directory not found.");
             return;
         }
-        Work remoteWork = deserializeRemoteWork(remoteDir);
-        if (remoteWork.filteredBranch(remoteBranchName) == null) {
+        Refs remoteRefs = new Refs(remoteDir);
+        String remoteBranchHeadHash = remoteRefs.getHeadHash(remoteBranchName);
+        if (remoteBranchHeadHash == null) {
             System.out.println("The remote does not have that branch.");
+            return;
         }
-        String remoteBranchHeadHash = remoteWork.getHeadHash(remoteBranchName);
-        Commit remoteBranchHead =
-                deserializeRemoteCommit(remoteDir, remoteBranchHeadHash);
-        List<String> remoteblobs =
-                Utils.plainFilenamesIn(Utils.join(remoteDir, "blobs"));
-        for (String blob: remoteblobs) {
-            overwriteBlob(remoteDir, blob);
-        }
-        Commit headCopy = getCurrHeadCommit(work);
-        String headCopyHash = getCommitHash(headCopy);
-        while (!remoteBranchHeadHash.equals(headCopyHash)) {
-            overwriteCommit(remoteDir, remoteBranchHeadHash);
-            if (remoteBranchHead.getCommitMessage()
-                    .equals("initial commit")) {
-                break;
+        Packs remotePacks = new Packs(remoteDir);
+        ObjectStore remoteCommits = remoteCommits(remoteDir, remotePacks);
+        ObjectStore remoteBlobs = remoteBlobs(remoteDir, remotePacks);
+        ObjectStore remoteTrees = remoteTrees(remoteDir, remotePacks);
+        CommitGraph remoteGraph =
+            remoteGraph(remoteDir, remoteCommits, remoteTrees);
+        LinkedHashMap<String, List<String>> parents = new LinkedHashMap<>();
+        ArrayDeque<String> workQueue = new ArrayDeque<>();
+        workQueue.addLast(remoteBranchHeadHash);
+        while (workQueue.size() > 0) {
+            String commit = workQueue.removeFirst();
+            if (parents.containsKey(commit) || Repo.COMMITS.contains(commit)) {
+                continue;
             }
-            remoteBranchHeadHash = remoteBranchHead.getPrevHash(0);
-            remoteBranchHead = deserializeCommit(remoteBranchHeadHash);
+            parents.put(commit, parentsOf(remoteGraph, remoteCommits,
+                    remoteTrees, commit));
+            workQueue.addAll(parents.get(commit));
+        }
+        List<String> fetched = parentsFirst(parents);
+        for (String commit: fetched) {
+            Commit c = deserializeRemoteCommit(remoteCommits, remoteTrees,
+                    commit);
+            if (c.getTree() != null) {
+                copyTree(remoteTrees, remoteBlobs, Repo.TREES, Repo.BLOBS,
+                        c.getTree());
+            } else {
+                for (FileReference f: c.getReferenceFiles()) {
+                    if (!Repo.BLOBS.contains(f.getReferenceHash())) {
+                        overwriteBlob(remoteBlobs, f.getReferenceHash());
+                    }
+                }
+            }
+            overwriteCommit(remoteCommits, commit);
         }
-        work.addBranchHash("remote " + remoteName + " "
+        Indexes.GRAPH.add(fetched);
+        Indexes.MESSAGES.add(fetched);
+        Repo.REFS.addBranchHash("remote " + remoteName + " "
                 + remoteBranchName, remoteBranchHeadHash);
-        serializeWork(work);
-        serializeRemoteWork(remoteDir, remoteWork);
+    }
+
+    /** Returns true if commit ANCESTOR is commit HASH or one of its
+     * ancestors, as found by MergeBase on the commit graph.
+     * @param ancestor
+     * @param hash
+     * @return
+     */
+    private static boolean isAncestor(String ancestor, String hash) {
+        return Indexes.GRAPH.contains(ancestor)
+            && ancestor.equals(MergeBase.find(Indexes.GRAPH, ancestor, hash));
+    }
+
+    /** Returns the commits that are keys of PARENTS, which maps each to
+     * its parents, ordered so that each comes after those of its parents
+     * that are among them. Commits copied in that order are never stored
+     * before their parents, so a copy that is stopped part way leaves
+     * every stored commit with its history, and the next copy, which
+     * stops at commits already stored, finishes it.
+     * @param parents
+     * @return
+     */
+    private static List<String> parentsFirst(
+            Map<String, List<String>> parents) {
+        ArrayList<String> order = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        ArrayDeque<String> path = new ArrayDeque<>();
+        ArrayDeque<Iterator<String>> rest = new ArrayDeque<>();
+        for (String start: parents.keySet()) {
+            if (!seen.add(start)) {
+                continue;
+            }
+            path.push(start);
+            rest.push(parents.get(start).iterator());
+            while (!path.isEmpty()) {
+                if (rest.peek().hasNext()) {
+                    String parent = rest.peek().next();
+                    if (parents.containsKey(parent) && seen.add(parent)) {
+                        path.push(parent);
+                        rest.push(parents.get(parent).iterator());
+                    }
+                } else {
+                    rest.pop();
+                    order.add(path.pop());
+                }
+            }
+        }
+        return order;
     }
 
     /** Fetches branch [remote name]/
@@ -1299,49 +2063,336 @@ public class Main {
         merge("remote " + remoteName + " " + remoteBranchName);
     }
 
+    /** Copy tree HASH from FROMTREES to TOTREES, along with the trees
+     * and blobs under it that TOTREES and TOBLOBS lack. A tree TOTREES
+     * already has is skipped whole, since everything under a tree is
+     * stored before it is.
+     * @param fromTrees
+     * @param fromBlobs
+     * @param toTrees
+     * @param toBlobs
+     * @param hash
+     */
+    private static void copyTree(ObjectStore fromTrees, ObjectStore fromBlobs,
+                                 ObjectStore toTrees, ObjectStore toBlobs,
+                                 String hash) {
+        if (toTrees.contains(hash)) {
+            return;
+        }
+        Tree tree = Tree.read(fromTrees, hash);
+        for (String blob: tree.getFiles().values()) {
+            if (!toBlobs.contains(blob)) {
+                copyBlob(fromBlobs, toBlobs, blob);
+            }
+        }
+        for (String subtree: tree.getDirectories().values()) {
+            copyTree(fromTrees, fromBlobs, toTrees, toBlobs, subtree);
+        }
+        toTrees.copy(fromTrees, hash);
+    }
+
     /** Overwrite a commit object on this machine
-     * REMOTEDIR COMMITHASH.
-     * @param remoteDir
+     * REMOTECOMMITS COMMITHASH.
+     * @param remoteCommits
      * @param commitHash
      */
-    public static void overwriteCommit(File remoteDir, String commitHash) {
-        Utils.writeObject(Utils.join(COMMIT_FOLDER, commitHash),
-                Utils.readObject(Utils.join(Utils.join(remoteDir, "commits"),
-                        commitHash), Commit.class));
+    public static void overwriteCommit(ObjectStore remoteCommits,
+                                       String commitHash) {
+        Repo.COMMITS.write(commitHash, remoteCommits.read(commitHash));
     }
 
     /** Overwrite a blob on this machine
-     * REMOTEDIR REF.
-     * @param remoteDir
+     * REMOTEBLOBS REF.
+     * @param remoteBlobs
      * @param ref
      */
-    public static void overwriteBlob(File remoteDir, String ref) {
-        Utils.writeContents(Utils.join(BLOB_FOLDER, ref),
-                Utils.readContents(Utils.join(Utils.join(remoteDir, "blobs"),
-                        ref)));
+    public static void overwriteBlob(ObjectStore remoteBlobs, String ref) {
+        copyBlob(remoteBlobs, Repo.BLOBS, ref);
     }
 
     /** Overwrite a blob on a remote machine
-     * REMOTEDIR REF.
-     * @param remoteDir
+     * REMOTEBLOBS REF.
+     * @param remoteBlobs
      * @param ref
      */
-    public static void overwriteRemoteBlob(File remoteDir, String ref) {
-        Utils.writeContents(Utils.join(Utils.join(remoteDir, "blobs"),
-                        ref),
-                Utils.readContents(deserializeBlob(ref)));
+    public static void overwriteRemoteBlob(ObjectStore remoteBlobs,
+                                           String ref) {
+        copyBlob(Repo.BLOBS, remoteBlobs, ref);
     }
 
     /** Overwrite a remote commit
-     * REMOTEDIR COMMITHASH.
-     * @param remoteDir
+     * REMOTECOMMITS COMMITHASH.
+     * @param remoteCommits
      * @param commitHash
      */
-    public static void overwriteRemoteCommit(File remoteDir,
+    public static void overwriteRemoteCommit(ObjectStore remoteCommits,
                                              String commitHash) {
-        Utils.writeObject(Utils.join(Utils.join(remoteDir, "commits"),
-                        commitHash),
-                Utils.readObject(
-                        Utils.join(COMMIT_FOLDER, commitHash), Commit.class));
+        remoteCommits.write(commitHash, Repo.COMMITS.read(commitHash));
+    }
+
+    /** Moves the objects of a repository made by an older gitlet,
+     * which kept all objects in one flat directory, into fan-out
+     * subdirectories. */
+    private static void migrateObjects() {
+        int moved = Repo.COMMITS.migrate() + Repo.BLOBS.migrate();
+        System.out.println("Moved " + moved + " objects.");
+    }
+
+    /** Moves all loose commits, trees and blobs into new packs. */
+    private static void repack() {
+        List<String> looseCommits = Repo.COMMITS.looseIds();
+        List<String> looseTrees = Repo.TREES.looseIds();
+        List<String> looseBlobs = Repo.BLOBS.looseIds();
+        if (looseCommits.isEmpty() && looseTrees.isEmpty()
+                && looseBlobs.isEmpty()) {
+            System.out.println("Nothing to pack.");
+            return;
+        }
+        Pack.Writer writer = Repo.PACKS.newWriter();
+        for (String hash: looseCommits) {
+            writer = rollOver(writer);
+            writer.add(hash, Pack.COMMIT, Repo.COMMITS.readStored(hash));
+        }
+        for (String hash: looseTrees) {
+            writer = rollOver(writer);
+            writer.add(hash, Pack.TREE, Repo.TREES.readStored(hash));
+        }
+        for (String hash: looseBlobs) {
+            writer = rollOver(writer);
+            writer.add(hash, Pack.BLOB, Repo.BLOBS.readStored(hash));
+        }
+        Repo.PACKS.addPack(writer.finish());
+        for (String hash: looseCommits) {
+            Repo.COMMITS.removeLoose(hash);
+        }
+        for (String hash: looseTrees) {
+            Repo.TREES.removeLoose(hash);
+        }
+        for (String hash: looseBlobs) {
+            Repo.BLOBS.removeLoose(hash);
+        }
+        System.out.println("Packed " + (looseCommits.size()
+                + looseTrees.size() + looseBlobs.size()) + " objects.");
+    }
+
+    /** Returns WRITER, or, once the pack it writes has passed
+     * PACK_LIMIT, a writer of a new pack, after adding the finished one.
+     * @param writer
+     * @return
+     */
+    private static Pack.Writer rollOver(Pack.Writer writer) {
+        if (writer.size() <= PACK_LIMIT) {
+            return writer;
+        }
+        Repo.PACKS.addPack(writer.finish());
+        return Repo.PACKS.newWriter();
+    }
+
+    /** Deletes the commits, trees and blobs that cannot be reached from
+     * any branch, remote-tracking branches included, once they are older
+     * than GRACEDAYS days. Commits written within the grace period are
+     * marked as if a branch reached them, so the trees, blobs and
+     * ancestors they need are kept with them. So are the trees and blobs
+     * written within the grace period and the blobs staged for addition,
+     * so that the delta bases and chunks a kept blob is built from are
+     * kept even when they are older. The commit graph is left holding
+     * exactly the commits that remain. Objects are marked a generation of
+     * commits, then a level of trees, then a level of blobs, at a time,
+     * with each level read in parallel by Workers. A tree already marked
+     * is not read again, so trees shared by many commits are read once.
+     * Packs holding unreachable objects are rewritten without them.
+     * @param graceDays
+     */
+    private static void gc(int graceDays) {
+        long cutoff = System.currentTimeMillis()
+                - graceDays * 24L * 60 * 60 * 1000;
+        Set<String> commits = ConcurrentHashMap.newKeySet();
+        Set<String> roots = ConcurrentHashMap.newKeySet();
+        Set<String> tracked = ConcurrentHashMap.newKeySet();
+        List<String> frontier = new ArrayList<>();
+        for (String branch: Repo.REFS.getBranches()) {
+            frontier.add(Repo.REFS.getHeadHash(branch));
+        }
+        frontier.addAll(Repo.COMMITS.recentIds(cutoff));
+        roots.addAll(Repo.TREES.recentIds(cutoff));
+        tracked.addAll(Repo.BLOBS.recentIds(cutoff));
+        tracked.addAll(deserializeStage().getStagedHashes().values());
+        while (!frontier.isEmpty()) {
+            List<String> unmarked = frontier.stream().filter(commits::add)
+                    .collect(Collectors.toList());
+            frontier = Workers.map(unmarked, hash -> {
+                Commit c = deserializeCommit(hash);
+                if (c.getTree() != null) {
+                    roots.add(c.getTree());
+                } else {
+                    for (FileReference f: c.getReferenceFiles()) {
+                        tracked.add(f.getReferenceHash());
+                    }
+                }
+                return c.getAllParentCommit();
+            }).stream().flatMap(List::stream).collect(Collectors.toList());
+        }
+        Set<String> trees = ConcurrentHashMap.newKeySet();
+        frontier = new ArrayList<>(roots);
+        while (!frontier.isEmpty()) {
+            List<String> unmarked = frontier.stream().filter(trees::add)
+                    .collect(Collectors.toList());
+            frontier = Workers.map(unmarked, hash -> {
+                Tree tree = Tree.read(Repo.TREES, hash);
+                tracked.addAll(tree.getFiles().values());
+                return new ArrayList<>(tree.getDirectories().values());
+            }).stream().flatMap(List::stream).collect(Collectors.toList());
+        }
+        Set<String> blobs = ConcurrentHashMap.newKeySet();
+        frontier = new ArrayList<>(tracked);
+        while (!frontier.isEmpty()) {
+            List<String> unmarked = frontier.stream().filter(blobs::add)
+                    .collect(Collectors.toList());
+            frontier = Workers.map(unmarked, Main::blobLinks).stream()
+                    .flatMap(List::stream).collect(Collectors.toList());
+        }
+        int removed = Repo.COMMITS.sweep(commits, cutoff)
+                + Repo.TREES.sweep(trees, cutoff)
+                + Repo.BLOBS.sweep(blobs, cutoff)
+                + prunePacks(Map.of(Pack.COMMIT, commits, Pack.TREE, trees,
+                        Pack.BLOB, blobs), cutoff);
+        Indexes.GRAPH.add(commits);
+        Indexes.GRAPH.retain(commits);
+        Indexes.MESSAGES.add(commits);
+        Indexes.MESSAGES.retain(commits);
+        System.out.println("Removed " + removed + " objects.");
+    }
+
+    /** Returns the hashes of the blobs blob HASH is built from: the base
+     * of a delta or the chunks of a chunked blob.
+     * @param hash
+     * @return
+     */
+    private static List<String> blobLinks(String hash) {
+        byte[] links = readBlobLinks(Repo.BLOBS, hash);
+        if (links == null) {
+            return Collections.emptyList();
+        }
+        if (ObjectFormat.typeOf(links) == ObjectFormat.DELTA) {
+            return Collections.singletonList(ObjectFormat.deltaBase(links));
+        }
+        return ObjectFormat.chunks(links);
+    }
+
+    /** Rewrites the packs written before CUTOFF that hold objects not
+     * in REACHABLE, the reachable objects of each kind, into new packs
+     * of their other objects. Returns the number of objects dropped.
+     * @param reachable
+     * @param cutoff
+     * @return
+     */
+    private static int prunePacks(Map<Byte, Set<String>> reachable,
+                                  long cutoff) {
+        ArrayList<Pack> stale = new ArrayList<>();
+        HashMap<String, Byte> kept = new HashMap<>();
+        int dropped = 0;
+        for (Pack p: Repo.PACKS.getPacks()) {
+            if (p.lastModified() >= cutoff) {
+                continue;
+            }
+            HashMap<String, Byte> packKept = new HashMap<>();
+            int unreachable = 0;
+            for (Map.Entry<Byte, Set<String>> e: reachable.entrySet()) {
+                ArrayList<String> ids = new ArrayList<>();
+                p.addIds(e.getKey(), "", ids);
+                for (String hash: ids) {
+                    if (e.getValue().contains(hash)) {
+                        packKept.put(hash, e.getKey());
+                    } else {
+                        unreachable += 1;
+                    }
+                }
+            }
+            if (unreachable == 0) {
+                continue;
+            }
+            stale.add(p);
+            dropped += unreachable;
+            kept.putAll(packKept);
+        }
+        if (stale.isEmpty()) {
+            return 0;
+        }
+        if (!kept.isEmpty()) {
+            Pack.Writer writer = Repo.PACKS.newWriter();
+            for (Map.Entry<String, Byte> e: kept.entrySet()) {
+                writer = rollOver(writer);
+                writer.add(e.getKey(), e.getValue(),
+                        Repo.PACKS.read(e.getKey()));
+            }
+            Repo.PACKS.addPack(writer.finish());
+        }
+        for (Pack p: stale) {
+            Repo.PACKS.removePack(p);
+        }
+        return dropped;
+    }
+
+    /** The refs, packs, object stores and commit cache of this
+     * repository, set up when first used, so that a command that fails
+     * its checks, or needs none of them, does not pay for them. */
+    private static class Repo {
+
+        /** Branch heads and HEAD pointer of this repository. */
+        static final Refs REFS = new Refs(GITLET_FOLDER);
+
+        /** Packs of this repository. */
+        static final Packs PACKS = new Packs(GITLET_FOLDER);
+
+        /** Commit objects. */
+        static final ObjectStore COMMITS =
+            new ObjectStore(COMMIT_FOLDER, PACKS, Pack.COMMIT);
+
+        /** Blob objects. */
+        static final ObjectStore BLOBS =
+            new ObjectStore(BLOB_FOLDER, PACKS, Pack.BLOB);
+
+        /** Tree objects. */
+        static final ObjectStore TREES =
+            new ObjectStore(TREE_FOLDER, PACKS, Pack.TREE);
+
+        /** Commits read so far, shared by this repository and its
+         * remotes. Its capacity is the gitlet.commitCacheSize property. */
+        static final CommitCache COMMIT_CACHE =
+            new CommitCache(Integer.getInteger("gitlet.commitCacheSize",
+                    4096));
+
+        static {
+            if (Boolean.getBoolean("gitlet.cacheStats")) {
+                Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                        System.err.println(COMMIT_CACHE)));
+            }
+        }
+    }
+
+    /** The commit graph and the message index, set up when first used,
+     * so that a command that needs neither does not pay for them. */
+    private static class Indexes {
+
+        /** Parents and generation numbers of the commits. */
+        static final CommitGraph GRAPH =
+            new CommitGraph(GITLET_FOLDER, Repo.COMMITS,
+                    Main::deserializeCommit);
+
+        /** Messages of the commits, for find. */
+        static final MessageIndex MESSAGES =
+            new MessageIndex(GITLET_FOLDER, Repo.COMMITS,
+                    Main::deserializeCommit);
+    }
+
+    /** The format of the dates in logs, set up when first used, since
+     * it loads the time zone rules. It is immutable, so it is shared by
+     * every thread. */
+    private static class LogDate {
+
+        /** Format of the dates in logs. */
+        static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM d hh:mm:ss yyyy Z",
+                    Locale.ENGLISH).withZone(ZoneId.systemDefault());
     }
 }
@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Finds the best common ancestors of two commits in a commit graph.
+ * Both commits are walked at once, newest generation first, and each
+ * commit reached is marked with the sides it is an ancestor of. A commit
+ * marked from both sides is a common ancestor; its own ancestors are
+ * marked stale, since they are common ancestors that are not the best,
+ * and the walk ends as soon as every commit left to visit is stale. As
+ * an ancestor always has a smaller generation number than its
+ * descendants, a commit is visited once, after everything above it, so
+ * only the commits between the two tips and their best common ancestors
+ * are visited, however long the shared history below them is.
+ * @author David Long */
+class MergeBase {
+
+    /** Mark of an ancestor of the first commit. */
+    private static final int ONE = 1;
+
+    /** Mark of an ancestor of the second commit. */
+    private static final int TWO = 2;
+
+    /** Mark of an ancestor of a common ancestor already found. */
+    private static final int STALE = 4;
+
+    /** The graph walked. */
+    private final CommitGraph _graph;
+
+    /** The marks of each commit reached, by position. */
+    private final HashMap<Integer, Integer> _marks = new HashMap<>();
+
+    /** The commits reached but not visited yet, newest generation
+     *  first. */
+    private final PriorityQueue<Integer> _queue;
+
+    /** Number of commits in the queue that are not stale. */
+    private int _active;
+
+    /** A walk over GRAPH.
+     * @param graph
+     */
+    private MergeBase(CommitGraph graph) {
+        _graph = graph;
+        _queue = new PriorityQueue<>(Comparator
+            .comparingInt((Integer p) -> -graph.generationAt(p))
+            .thenComparingLong(p -> -graph.timestampAt(p))
+            .thenComparingInt(p -> p));
+    }
+
+    /** Returns the best common ancestor of commits ONE and TWO of GRAPH,
+     * which are added to it first if missing, or null if they have none.
+     * Of several best common ancestors, the one with the highest
+     * generation number, and then the newest, is returned.
+     * @param graph
+     * @param one
+     * @param two
+     * @return
+     */
+    static String find(CommitGraph graph, String one, String two) {
+        List<String> all = findAll(graph, one, two);
+        return all.isEmpty() ? null : all.get(0);
+    }
+
+    /** Returns the best common ancestors of commits ONE and TWO of GRAPH,
+     * which are added to it first if missing: the common ancestors that
+     * are not an ancestor of another common ancestor, newest generation
+     * first.
+     * @param graph
+     * @param one
+     * @param two
+     * @return
+     */
+    static List<String> findAll(CommitGraph graph, String one, String two) {
+        if (one.equals(two)) {
+            return List.of(one);
+        }
+        graph.add(List.of(one, two));
+        return new MergeBase(graph).walk(graph.position(one),
+                graph.position(two));
+    }
+
+    /** Returns the best common ancestors of the commits at positions ONE
+     * and TWO.
+     * @param one
+     * @param two
+     * @return
+     */
+    private List<String> walk(int one, int two) {
+        mark(one, ONE);
+        mark(two, TWO);
+        ArrayList<String> found = new ArrayList<>();
+        while (_active > 0) {
+            int position = _queue.poll();
+            int marks = _marks.get(position);
+            if ((marks & STALE) == 0) {
+                _active -= 1;
+                if ((marks & (ONE | TWO)) == (ONE | TWO)) {
+                    found.add(_graph.hashAt(position));
+                    marks |= STALE;
+                }
+            }
+            for (int parent: _graph.parentsAt(position)) {
+                mark(parent, marks);
+            }
+        }
+        return found;
+    }
+
+    /** Add MARKS to the marks of the commit at POSITION, queueing it if
+     * it was not reached before.
+     * @param position
+     * @param marks
+     */
+    private void mark(int position, int marks) {
+        Integer old = _marks.get(position);
+        if (old == null) {
+            _marks.put(position, marks);
+            _queue.add(position);
+            if ((marks & STALE) == 0) {
+                _active += 1;
+            }
+        } else if ((old | marks) != old) {
+            _marks.put(position, old | marks);
+            if ((old & STALE) == 0 && (marks & STALE) != 0) {
+                _active -= 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/** The message of every commit of a repository, indexed so that find
+ * never reads a commit object. Each segment of the index holds, for a
+ * set of commits sorted by hash, their messages, a hash table from
+ * message to commit for exact lookups, and an inverted index from each
+ * trigram (three consecutive characters) to the commits whose messages
+ * contain it, for substring searches: only the commits holding
+ * the rarest trigram of the text searched for are looked at. Segments
+ * are memory-mapped and never changed once written. As in the commit
+ * graph, new commits are written as a new segment named in a chain file,
+ * and the top segments are merged whenever the one below the new one
+ * holds fewer than twice as many commits. A repository without an index
+ * has all its commits added the first time the index is used.
+ * A segment holds, in order:
+ * <ol>
+ *   <li>the magic number, version, number of commits, size of the hash
+ *   table and number of trigrams (4 bytes each);</li>
+ *   <li>the 20-byte hash of each commit, sorted;</li>
+ *   <li>the offset of each commit's message in the message area, and
+ *   then the length of that area (4 bytes each);</li>
+ *   <li>the hash table: for each slot, one more than the index of the
+ *   commit in it, or 0 if it is empty (4 bytes each);</li>
+ *   <li>for each trigram, sorted, the trigram (8 bytes) and the offset
+ *   of its commits in the postings (4 bytes), and then a record with
+ *   trigram -1 holding the number of postings;</li>
+ *   <li>the postings: the indices of the commits with each trigram,
+ *   ascending (4 bytes each);</li>
+ *   <li>the message area: the messages in UTF-8.</li>
+ * </ol>
+ * @author David Long */
+class MessageIndex {
+
+    /** Magic number at the start of a segment ("GLMI"). */
+    private static final int MAGIC = 0x474c4d49;
+
+    /** Version of the segment format. */
+    private static final int VERSION = 1;
+
+    /** Length of the header of a segment. */
+    private static final int HEADER_LENGTH = 20;
+
+    /** Length of a trigram record: the trigram and its offset. */
+    private static final int GRAM_LENGTH = 8 + 4;
+
+    /** Number of characters in a trigram. */
+    private static final int GRAM = 3;
+
+    /** The directory holding the chain file and the segments. */
+    private final File _folder;
+
+    /** The chain file. */
+    private final File _chainFile;
+
+    /** The commits of the repository. */
+    private final ObjectStore _commits;
+
+    /** Reads a commit of the repository, given its hash. */
+    private final Function<String, Commit> _reader;
+
+    /** The segments, bottom first, or null if they are not open yet. */
+    private ArrayList<Segment> _segments;
+
+    /** The message index of the repository whose .gitlet directory is
+     * GITLETFOLDER, whose commits are in COMMITS and read by READER.
+     * @param gitletFolder
+     * @param commits
+     * @param reader
+     */
+    MessageIndex(File gitletFolder, ObjectStore commits,
+                 Function<String, Commit> reader) {
+        _folder = Utils.join(gitletFolder, "messages");
+        _chainFile = Utils.join(_folder, "chain");
+        _commits = commits;
+        _reader = reader;
+    }
+
+    /** Get the segments, opening them if needed. A repository without an
+     * index has all its commits added to a new one.
+     * @return
+     */
+    private synchronized ArrayList<Segment> segments() {
+        if (_segments == null) {
+            _segments = new ArrayList<>();
+            if (_chainFile.isFile()) {
+                for (String name: Utils.readContentsAsString(_chainFile)
+                         .split("\n")) {
+                    if (!name.isEmpty()) {
+                        _segments.add(new Segment(Utils.join(_folder, name)));
+                    }
+                }
+            } else {
+                add(_commits.allIds());
+            }
+        }
+        return _segments;
+    }
+
+    /** Drop the segments read so far, so that they are read again from
+     * the chain file when next used. */
+    synchronized void reload() {
+        _segments = null;
+    }
+
+    /** Returns true if commit HASH is in the index.
+     * @param hash
+     * @return
+     */
+    boolean contains(String hash) {
+        byte[] id = Utils.hexToBytes(hash);
+        for (Segment s: segments()) {
+            if (s.find(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Pass the hash of each commit whose message is MESSAGE to ACTION,
+     * in order of hash.
+     * @param message
+     * @param action
+     */
+    void withMessage(String message, Consumer<String> action) {
+        ArrayList<List<String>> found = new ArrayList<>();
+        for (Segment s: segments()) {
+            found.add(s.withMessage(message));
+        }
+        merge(found, action);
+    }
+
+    /** Pass the hash of each commit whose message contains TEXT to
+     * ACTION, in order of hash.
+     * @param text
+     * @param action
+     */
+    void containing(String text, Consumer<String> action) {
+        ArrayList<List<String>> found = new ArrayList<>();
+        for (Segment s: segments()) {
+            found.add(s.containing(text));
+        }
+        merge(found, action);
+    }
+
+    /** Pass the hashes of LISTS, each sorted, to ACTION in order.
+     * @param lists
+     * @param action
+     */
+    private static void merge(List<List<String>> lists,
+                              Consumer<String> action) {
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) ->
+            lists.get(a[0]).get(a[1]).compareTo(lists.get(b[0]).get(b[1])));
+        for (int i = 0; i < lists.size(); i += 1) {
+            if (!lists.get(i).isEmpty()) {
+                heads.add(new int[] {i, 0});
+            }
+        }
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<String> list = lists.get(head[0]);
+            action.accept(list.get(head[1]));
+            if (head[1] + 1 < list.size()) {
+                heads.add(new int[] {head[0], head[1] + 1});
+            }
+        }
+    }
+
+    /** Add the commits HASHES that are not in the index yet as a new
+     * segment.
+     * @param hashes
+     */
+    synchronized void add(Collection<String> hashes) {
+        TreeMap<String, String> added = new TreeMap<>();
+        for (String hash: hashes) {
+            if (!added.containsKey(hash) && !contains(hash)) {
+                added.put(hash, _reader.apply(hash).getCommitMessage());
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        ArrayList<Segment> segments = segments();
+        ArrayList<Segment> merged = new ArrayList<>();
+        while (!segments.isEmpty() && segments.get(segments.size() - 1)
+                ._count < 2 * added.size()) {
+            Segment top = segments.remove(segments.size() - 1);
+            top.addEntries(added);
+            merged.add(top);
+        }
+        segments.add(writeSegment(added));
+        writeChain();
+        for (Segment s: merged) {
+            s._file.delete();
+        }
+    }
+
+    /** Remove the commits not in KEEP from the index, rewriting it as
+     * one segment.
+     * @param keep
+     */
+    synchronized void retain(Set<String> keep) {
+        TreeMap<String, String> kept = new TreeMap<>();
+        int count = 0;
+        for (Segment s: segments()) {
+            s.addEntries(kept);
+            count += s._count;
+        }
+        kept.keySet().retainAll(keep);
+        if (kept.size() == count) {
+            return;
+        }
+        ArrayList<Segment> old = new ArrayList<>(_segments);
+        _segments.clear();
+        if (!kept.isEmpty()) {
+            _segments.add(writeSegment(kept));
+        }
+        writeChain();
+        for (Segment s: old) {
+            if (_segments.isEmpty()
+                    || !s._file.equals(_segments.get(0)._file)) {
+                s._file.delete();
+            }
+        }
+    }
+
+    /** Write the commits and messages of ENTRIES as a segment and return
+     * it.
+     * @param entries
+     * @return
+     */
+    private Segment writeSegment(TreeMap<String, String> entries) {
+        int count = entries.size();
+        int tableSize = 1;
+        while (tableSize < 2 * count) {
+            tableSize <<= 1;
+        }
+        byte[][] messages = new byte[count][];
+        int[] table = new int[tableSize];
+        HashMap<Long, Postings> grams = new HashMap<>();
+        int messagesLength = 0;
+        int postingsLength = 0;
+        int i = 0;
+        for (String message: entries.values()) {
+            messages[i] = message.getBytes(StandardCharsets.UTF_8);
+            messagesLength += messages[i].length;
+            int slot = message.hashCode() & (tableSize - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot] = i + 1;
+            for (int k = 0; k + GRAM <= message.length(); k += 1) {
+                if (grams.computeIfAbsent(gram(message, k),
+                        g -> new Postings()).add(i)) {
+                    postingsLength += 1;
+                }
+            }
+            i += 1;
+        }
+        long[] keys = new long[grams.size()];
+        i = 0;
+        for (long key: grams.keySet()) {
+            keys[i] = key;
+            i += 1;
+        }
+        Arrays.sort(keys);
+        ByteBuffer data = ByteBuffer.allocate(HEADER_LENGTH
+                + count * Utils.UID_BYTES + (count + 1) * 4 + tableSize * 4
+                + (keys.length + 1) * GRAM_LENGTH + postingsLength * 4
+                + messagesLength);
+        data.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(tableSize)
+            .putInt(keys.length);
+        for (String hash: entries.keySet()) {
+            data.put(Utils.hexToBytes(hash));
+        }
+        int offset = 0;
+        for (byte[] message: messages) {
+            data.putInt(offset);
+            offset += message.length;
+        }
+        data.putInt(offset);
+        for (int slot: table) {
+            data.putInt(slot);
+        }
+        offset = 0;
+        for (long key: keys) {
+            data.putLong(key).putInt(offset);
+            offset += grams.get(key)._size;
+        }
+        data.putLong(-1).putInt(offset);
+        for (long key: keys) {
+            Postings p = grams.get(key);
+            for (int k = 0; k < p._size; k += 1) {
+                data.putInt(p._items[k]);
+            }
+        }
+        for (byte[] message: messages) {
+            data.put(message);
+        }
+        File file = Utils.join(_folder,
+                "messages-" + Utils.sha1(data.array()) + ".index");
+        Utils.writeAtomically(file, data.array());
+        return new Segment(file);
+    }
+
+    /** Write the chain file naming the current segments. */
+    private void writeChain() {
+        StringBuilder chain = new StringBuilder();
+        for (Segment s: segments()) {
+            chain.append(s._file.getName()).append('\n');
+        }
+        Utils.writeAtomically(_chainFile,
+                chain.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the trigram of TEXT starting at character K.
+     * @param text
+     * @param k
+     * @return
+     */
+    private static long gram(String text, int k) {
+        return ((long) text.charAt(k) << 32)
+            | ((long) text.charAt(k + 1) << 16) | text.charAt(k + 2);
+    }
+
+    /** The ascending indices of the commits with one trigram. */
+    private static class Postings {
+
+        /** The indices, in the first _size elements. */
+        private int[] _items = new int[4];
+
+        /** Number of indices. */
+        private int _size;
+
+        /** Add INDEX, which is not less than any index added before,
+         * unless it is the last one added. Returns true if it was
+         * added.
+         * @param index
+         * @return
+         */
+        boolean add(int index) {
+            if (_size > 0 && _items[_size - 1] == index) {
+                return false;
+            }
+            if (_size == _items.length) {
+                _items = Arrays.copyOf(_items, 2 * _size);
+            }
+            _items[_size] = index;
+            _size += 1;
+            return true;
+        }
+    }
+
+    /** One mapped segment. */
+    private static class Segment {
+
+        /** The segment file. */
+        private final File _file;
+
+        /** The mapped segment file. */
+        private final MappedByteBuffer _data;
+
+        /** Number of commits in this segment. */
+        private final int _count;
+
+        /** Number of slots in the hash table. */
+        private final int _tableSize;
+
+        /** Number of trigrams. */
+        private final int _gramCount;
+
+        /** Offset of the message offsets. */
+        private final int _offsets;
+
+        /** Offset of the hash table. */
+        private final int _table;
+
+        /** Offset of the trigrams. */
+        private final int _grams;
+
+        /** Offset of the postings. */
+        private final int _postings;
+
+        /** Offset of the message area. */
+        private final int _messages;
+
+        /** Open segment FILE.
+         * @param file
+         */
+        Segment(File file) {
+            _file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileChannel channel = raf.getChannel();
+                _data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (_data.getInt(0) != MAGIC || _data.getInt(4) != VERSION) {
+                throw Utils.error("Corrupt message index %s.",
+                        file.getName());
+            }
+            _count = _data.getInt(8);
+            _tableSize = _data.getInt(12);
+            _gramCount = _data.getInt(16);
+            _offsets = HEADER_LENGTH + _count * Utils.UID_BYTES;
+            _table = _offsets + (_count + 1) * 4;
+            _grams = _table + _tableSize * 4;
+            _postings = _grams + (_gramCount + 1) * GRAM_LENGTH;
+            _messages = _postings
+                + _data.getInt(_grams + _gramCount * GRAM_LENGTH + 8) * 4;
+        }
+
+        /** Returns the hash bytes of commit INDEX.
+         * @param index
+         * @return
+         */
+        byte[] idAt(int index) {
+            byte[] id = new byte[Utils.UID_BYTES];
+            _data.get(HEADER_LENGTH + index * Utils.UID_BYTES, id);
+            return id;
+        }
+
+        /** Returns the hash of commit INDEX.
+         * @param index
+         * @return
+         */
+        String hashAt(int index) {
+            return Utils.bytesToHex(idAt(index), 0, Utils.UID_BYTES);
+        }
+
+        /** Returns the message of commit INDEX.
+         * @param index
+         * @return
+         */
+        String messageAt(int index) {
+            int start = _data.getInt(_offsets + index * 4);
+            byte[] message =
+                new byte[_data.getInt(_offsets + index * 4 + 4) - start];
+            _data.get(_messages + start, message);
+            return new String(message, StandardCharsets.UTF_8);
+        }
+
+        /** Returns the index of commit ID, or -1 if it is not in this
+         * segment.
+         * @param id
+         * @return
+         */
+        int find(byte[] id) {
+            int lo = 0;
+            int hi = _count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = Arrays.compareUnsigned(idAt(mid), id);
+                if (cmp == 0) {
+                    return mid;
+                } else if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return -1;
+        }
+
+        /** Returns the hashes of the commits whose message is MESSAGE,
+         * sorted.
+         * @param message
+         * @return
+         */
+        List<String> withMessage(String message) {
+            ArrayList<Integer> found = new ArrayList<>();
+            int slot = message.hashCode() & (_tableSize - 1);
+            for (int entry = _data.getInt(_table + slot * 4); entry != 0;
+                 entry = _data.getInt(_table + slot * 4)) {
+                if (messageAt(entry - 1).equals(message)) {
+                    found.add(entry - 1);
+                }
+                slot = (slot + 1) & (_tableSize - 1);
+            }
+            found.sort(null);
+            return hashesOf(found);
+        }
+
+        /** Returns the hashes of the commits whose message contains
+         * TEXT, sorted. Only the commits with the rarest trigram of TEXT
+         * are looked at, or all of them if TEXT is shorter than a
+         * trigram.
+         * @param text
+         * @return
+         */
+        List<String> containing(String text) {
+            int start = 0;
+            int end = _count;
+            boolean all = text.length() < GRAM;
+            for (int k = 0; k + GRAM <= text.length(); k += 1) {
+                int g = findGram(gram(text, k));
+                if (g < 0) {
+                    return new ArrayList<>();
+                }
+                int gStart = _data.getInt(_grams + g * GRAM_LENGTH + 8);
+                int gEnd = _data.getInt(_grams + (g + 1) * GRAM_LENGTH + 8);
+                if (k == 0 || gEnd - gStart < end - start) {
+                    start = gStart;
+                    end = gEnd;
+                }
+            }
+            ArrayList<Integer> found = new ArrayList<>();
+            for (int p = start; p < end; p += 1) {
+                int index = all ? p : _data.getInt(_postings + p * 4);
+                if (messageAt(index).contains(text)) {
+                    found.add(index);
+                }
+            }
+            return hashesOf(found);
+        }
+
+        /** Returns the number of trigram KEY in the trigram table, or -1
+         * if no message has it.
+         * @param key
+         * @return
+         */
+        private int findGram(long key) {
+            int lo = 0;
+            int hi = _gramCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                long probe = _data.getLong(_grams + mid * GRAM_LENGTH);
+                if (probe == key) {
+                    return mid;
+                } else if (probe < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return -1;
+        }
+
+        /** Returns the hashes of the commits INDICES.
+         * @param indices
+         * @return
+         */
+        private List<String> hashesOf(List<Integer> indices) {
+            ArrayList<String> hashes = new ArrayList<>();
+            for (int index: indices) {
+                hashes.add(hashAt(index));
+            }
+            return hashes;
+        }
+
+        /** Add the hash and message of each commit of this segment to
+         * ENTRIES.
+         * @param entries
+         */
+        void addEntries(Map<String, String> entries) {
+            for (int i = 0; i < _count; i += 1) {
+                entries.put(hashAt(i), messageAt(i));
+            }
+        }
+    }
+}
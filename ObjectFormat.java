@@ -0,0 +1,253 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** The header stored in front of every object written by this version of
+ * gitlet, which says how the rest of the object is encoded. Objects
+ * written by older versions have no header and are read as raw contents.
+ * On disk, the rest of an object is usually compressed, which the header
+ * marks with the DEFLATED flag; decoding inflates it and clears the flag.
+ * @author David Long */
+class ObjectFormat {
+
+    /** Bytes starting every header. They cannot start a serialized
+     *  commit and practically never start a file. */
+    private static final byte[] MAGIC = {0, 'G', 'L'};
+
+    /** Length of the header. */
+    static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    /** Type of an object stored whole. */
+    static final byte RAW = 0;
+
+    /** Type of a blob stored as a delta against another blob. A delta
+     *  object holds the hash of its base, its depth in the delta chain
+     *  and the delta itself. */
+    static final byte DELTA = 1;
+
+    /** Type of a blob stored as a list of chunks, which are blobs
+     *  themselves. A chunked object holds the hashes of its chunks,
+     *  in order. */
+    static final byte CHUNKED = 2;
+
+    /** Flag set in the type of an object whose rest is compressed. */
+    static final byte DEFLATED = (byte) 0x80;
+
+    /** Size of the buffers used when compressing and inflating. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Offset of the delta depth in a delta object. */
+    private static final int DEPTH_OFFSET = HEADER_LENGTH + Utils.UID_BYTES;
+
+    /** Offset of the delta in a delta object. */
+    private static final int DELTA_OFFSET = DEPTH_OFFSET + 1;
+
+    /** Returns true if STORED starts with a header.
+     *  @param stored
+     *  @return
+     */
+    static boolean hasHeader(byte[] stored) {
+        if (stored.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (stored[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the type of the object STORED.
+     *  @param stored
+     *  @return
+     */
+    static byte typeOf(byte[] stored) {
+        if (!hasHeader(stored)) {
+            return RAW;
+        }
+        return stored[MAGIC.length];
+    }
+
+    /** Returns a header of TYPE.
+     *  @param type
+     *  @return
+     */
+    private static byte[] header(byte type) {
+        byte[] header = Arrays.copyOf(MAGIC, HEADER_LENGTH);
+        header[MAGIC.length] = type;
+        return header;
+    }
+
+    /** Returns CONTENTS stored whole.
+     *  @param contents
+     *  @return
+     */
+    static byte[] raw(byte[] contents) {
+        byte[] stored = Arrays.copyOf(header(RAW),
+                HEADER_LENGTH + contents.length);
+        System.arraycopy(contents, 0, stored, HEADER_LENGTH, contents.length);
+        return stored;
+    }
+
+    /** Returns the contents of the whole object STORED.
+     *  @param stored
+     *  @return
+     */
+    static byte[] rawContents(byte[] stored) {
+        if (!hasHeader(stored)) {
+            return stored;
+        }
+        return Arrays.copyOfRange(stored, HEADER_LENGTH, stored.length);
+    }
+
+    /** Returns a delta object of depth DEPTH holding DELTA against the
+     *  blob BASEHASH.
+     *  @param baseHash
+     *  @param depth
+     *  @param delta
+     *  @return
+     */
+    static byte[] delta(String baseHash, int depth, byte[] delta) {
+        byte[] stored = Arrays.copyOf(header(DELTA),
+                DELTA_OFFSET + delta.length);
+        System.arraycopy(Utils.hexToBytes(baseHash), 0, stored,
+                HEADER_LENGTH, Utils.UID_BYTES);
+        stored[DEPTH_OFFSET] = (byte) depth;
+        System.arraycopy(delta, 0, stored, DELTA_OFFSET, delta.length);
+        return stored;
+    }
+
+    /** Returns the hash of the base of the delta object STORED.
+     *  @param stored
+     *  @return
+     */
+    static String deltaBase(byte[] stored) {
+        return Utils.bytesToHex(stored, HEADER_LENGTH, Utils.UID_BYTES);
+    }
+
+    /** Returns the depth in its delta chain of the object STORED, which
+     *  is 0 for an object stored whole.
+     *  @param stored
+     *  @return
+     */
+    static int deltaDepth(byte[] stored) {
+        if (typeOf(stored) != DELTA) {
+            return 0;
+        }
+        return stored[DEPTH_OFFSET];
+    }
+
+    /** Returns the delta held by the delta object STORED.
+     *  @param stored
+     *  @return
+     */
+    static byte[] deltaData(byte[] stored) {
+        return Arrays.copyOfRange(stored, DELTA_OFFSET, stored.length);
+    }
+
+    /** Returns a chunked object listing CHUNKS.
+     *  @param chunks
+     *  @return
+     */
+    static byte[] chunked(List<String> chunks) {
+        byte[] stored = Arrays.copyOf(header(CHUNKED),
+                HEADER_LENGTH + chunks.size() * Utils.UID_BYTES);
+        int pos = HEADER_LENGTH;
+        for (String chunk: chunks) {
+            System.arraycopy(Utils.hexToBytes(chunk), 0, stored, pos,
+                    Utils.UID_BYTES);
+            pos += Utils.UID_BYTES;
+        }
+        return stored;
+    }
+
+    /** Returns the hashes of the chunks listed by the chunked
+     *  object STORED.
+     *  @param stored
+     *  @return
+     */
+    static List<String> chunks(byte[] stored) {
+        ArrayList<String> chunks = new ArrayList<>();
+        for (int pos = HEADER_LENGTH; pos < stored.length;
+             pos += Utils.UID_BYTES) {
+            chunks.add(Utils.bytesToHex(stored, pos, Utils.UID_BYTES));
+        }
+        return chunks;
+    }
+
+    /** Returns the decoded object OBJ compressed for storage. Objects
+     *  without a header are first given one, and objects that do not
+     *  shrink are stored as they are.
+     *  @param obj
+     *  @return
+     */
+    static byte[] compress(byte[] obj) {
+        if (!hasHeader(obj)) {
+            obj = raw(obj);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(header((byte) (obj[MAGIC.length] | DEFLATED)));
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (DeflaterOutputStream deflated =
+                new DeflaterOutputStream(out, deflater)) {
+            deflated.write(obj, HEADER_LENGTH, obj.length - HEADER_LENGTH);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        if (out.size() >= obj.length) {
+            return obj;
+        }
+        return out.toByteArray();
+    }
+
+    /** Write the whole object read from IN to OUT, compressed, as
+     *  compress would store it but without holding it in memory.
+     *  @param in
+     *  @param out
+     */
+    static void compressTo(InputStream in, OutputStream out)
+        throws IOException {
+        out.write(header((byte) (RAW | DEFLATED)));
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            DeflaterOutputStream deflated =
+                new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            in.transferTo(deflated);
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Returns a stream of the decoded object read from the stream STORED
+     *  of the object as stored. The object is inflated as it is read.
+     *  @param stored
+     *  @return
+     */
+    static InputStream decode(InputStream stored) throws IOException {
+        byte[] head = stored.readNBytes(HEADER_LENGTH);
+        if (!hasHeader(head) || (head[MAGIC.length] & DEFLATED) == 0) {
+            return new SequenceInputStream(new ByteArrayInputStream(head),
+                    stored);
+        }
+        head[MAGIC.length] &= ~DEFLATED;
+        return new SequenceInputStream(new ByteArrayInputStream(head),
+                new InflaterInputStream(
+                        new BufferedInputStream(stored, BUFFER_SIZE)));
+    }
+}
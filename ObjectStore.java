@@ -0,0 +1,443 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** The objects of one kind (commits, trees or blobs) of a repository,
+ * named by their SHA-1 hash. Objects are kept in the repository's packs
+ * or as loose files, and packs are always checked first. Loose objects are
+ * fanned out into subdirectories named by the first two hex digits of
+ * their hash, so no directory grows past a fraction of the objects and
+ * a lookup never lists a directory.
+ * @author David Long */
+public class ObjectStore {
+
+    /** Number of hex digits used to name a fan-out subdirectory. */
+    private static final int FANOUT_LENGTH = 2;
+
+    /** The directory containing the fan-out subdirectories. */
+    private final File _folder;
+
+    /** The packs of the repository. */
+    private final Packs _packs;
+
+    /** The kind of the objects in this store. */
+    private final byte _kind;
+
+    /** Object store of objects of KIND, kept in PACKS and as loose
+     * objects in FOLDER.
+     * @param folder
+     * @param packs
+     * @param kind
+     */
+    public ObjectStore(File folder, Packs packs, byte kind) {
+        _folder = folder;
+        _packs = packs;
+        _kind = kind;
+    }
+
+    /** Get the kind of the objects in this store.
+     * @return
+     */
+    public byte getKind() {
+        return _kind;
+    }
+
+    /** Get the directory of this store.
+     * @return
+     */
+    public File getFolder() {
+        return _folder;
+    }
+
+    /** Get the file holding object HASH, which need not exist yet.
+     * @param hash
+     * @return
+     */
+    public File objectFile(String hash) {
+        return Utils.join(_folder, hash.substring(0, FANOUT_LENGTH),
+                hash.substring(FANOUT_LENGTH));
+    }
+
+    /** Get the file to write object HASH to, creating its fan-out
+     * subdirectory, and the store directory itself, if needed.
+     * @param hash
+     * @return
+     */
+    public File newObjectFile(String hash) {
+        File f = objectFile(hash);
+        f.getParentFile().mkdirs();
+        return f;
+    }
+
+    /** Move the loose objects an older version kept directly in the
+     * directory of this store into their fan-out subdirectories. */
+    public void fanOutFlat() {
+        List<String> names = Utils.plainFilenamesIn(_folder);
+        if (names == null) {
+            return;
+        }
+        for (String name: names) {
+            if (name.length() == Utils.UID_LENGTH) {
+                Utils.join(_folder, name).renameTo(newObjectFile(name));
+            }
+        }
+    }
+
+    /** Returns true if object HASH is in this store.
+     * @param hash
+     * @return
+     */
+    public boolean contains(String hash) {
+        return _packs.contains(hash) || objectFile(hash).isFile();
+    }
+
+    /** Returns the decoded contents of object HASH.
+     * @param hash
+     * @return
+     */
+    public byte[] read(String hash) {
+        try (InputStream in = open(hash)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream of the decoded contents of object HASH, which is
+     * decompressed as it is read.
+     * @param hash
+     * @return
+     */
+    public InputStream open(String hash) {
+        try {
+            return ObjectFormat.decode(openStored(hash));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream of object HASH as it is stored.
+     * @param hash
+     * @return
+     */
+    private InputStream openStored(String hash) throws IOException {
+        InputStream stored = _packs.open(hash);
+        if (stored != null) {
+            return stored;
+        }
+        File loose = objectFile(hash);
+        if (!loose.isFile()) {
+            throw Utils.error("Object %s is missing.", hash);
+        }
+        return new FileInputStream(loose);
+    }
+
+    /** Returns object HASH as it is stored, to be copied into a pack.
+     * @param hash
+     * @return
+     */
+    public byte[] readStored(String hash) {
+        try (InputStream in = openStored(hash)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Compress and store the decoded object CONTENTS as loose
+     * object HASH. As in ingest, it is written to a temporary file that
+     * is then renamed to the hash, so an interrupted write never leaves
+     * a truncated object under that name.
+     * @param hash
+     * @param contents
+     */
+    public void write(String hash, byte[] contents) {
+        Utils.writeAtomically(newObjectFile(hash),
+                ObjectFormat.compress(contents), _folder);
+    }
+
+    /** Store the contents of file SOURCE as a loose object in a single
+     * pass: they are hashed while being compressed into a temporary
+     * file, which is then renamed to the hash. Heap use does not depend
+     * on the size of SOURCE. Returns the hash.
+     * @param source
+     * @return
+     */
+    public String ingest(File source) {
+        _folder.mkdir();
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp-", null, _folder);
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            try (InputStream in = new DigestInputStream(
+                    new FileInputStream(source), md);
+                 OutputStream out = new BufferedOutputStream(
+                         new FileOutputStream(tmp))) {
+                ObjectFormat.compressTo(in, out);
+            }
+            byte[] digest = md.digest();
+            String hash = Utils.bytesToHex(digest, 0, digest.length);
+            if (contains(hash)) {
+                tmp.delete();
+            } else {
+                Files.move(tmp.toPath(), newObjectFile(hash).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            return hash;
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store the contents of file SOURCE as a chunked object, splitting
+     * them with a Chunker and storing each chunk this store lacks as a
+     * loose object of its own. Only one chunk is held in memory at a
+     * time. Returns the hash of the whole contents.
+     * @param source
+     * @return
+     */
+    public String ingestChunks(File source) {
+        ArrayList<String> chunks = new ArrayList<>();
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            try (InputStream in = new DigestInputStream(
+                    new FileInputStream(source), md)) {
+                Chunker chunker = new Chunker(in);
+                for (byte[] chunk = chunker.next(); chunk != null;
+                     chunk = chunker.next()) {
+                    String chunkHash = Utils.sha1(chunk);
+                    if (!contains(chunkHash)) {
+                        write(chunkHash, ObjectFormat.raw(chunk));
+                    }
+                    chunks.add(chunkHash);
+                }
+            }
+            byte[] digest = md.digest();
+            String hash = Utils.bytesToHex(digest, 0, digest.length);
+            if (!contains(hash)) {
+                write(hash, ObjectFormat.chunked(chunks));
+            }
+            return hash;
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy object HASH as it is stored from store FROM into this store
+     * as a loose object, streaming it through a temporary file.
+     * @param from
+     * @param hash
+     */
+    public void copy(ObjectStore from, String hash) {
+        _folder.mkdir();
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp-", null, _folder);
+            try (InputStream in = from.openStored(hash)) {
+                Files.copy(in, tmp.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(tmp.toPath(), newObjectFile(hash).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Delete loose object HASH, once it has been packed.
+     * @param hash
+     */
+    public void removeLoose(String hash) {
+        objectFile(hash).delete();
+    }
+
+    /** Delete the loose objects not in REACHABLE that were written
+     * before CUTOFF, in milliseconds since the epoch, and the temporary
+     * files of interrupted writes older than that. Returns the number of
+     * objects deleted.
+     * @param reachable
+     * @param cutoff
+     * @return
+     */
+    public int sweep(Set<String> reachable, long cutoff) {
+        int removed = 0;
+        for (String subdir: fanoutDirs()) {
+            File dir = Utils.join(_folder, subdir);
+            for (String name: Utils.plainFilenamesIn(dir)) {
+                File f = Utils.join(dir, name);
+                if (!reachable.contains(subdir + name)
+                        && f.lastModified() < cutoff && f.delete()) {
+                    removed += 1;
+                }
+            }
+            dir.delete();
+        }
+        List<String> names = Utils.plainFilenamesIn(_folder);
+        if (names != null) {
+            for (String name: names) {
+                File f = Utils.join(_folder, name);
+                if (name.startsWith("tmp-") && f.lastModified() < cutoff) {
+                    f.delete();
+                }
+            }
+        }
+        return removed;
+    }
+
+    /** Returns the hashes of all objects whose hash starts with PREFIX,
+     * in lexicographic order. Only the fan-out subdirectories that can
+     * hold such objects are listed.
+     * @param prefix
+     * @return
+     */
+    public List<String> idsWithPrefix(String prefix) {
+        TreeSet<String> ids = new TreeSet<>();
+        _packs.addIds(_kind, prefix, ids);
+        addLooseIds(prefix, ids);
+        return new ArrayList<>(ids);
+    }
+
+    /** Returns the hashes of all objects in this store,
+     * in lexicographic order.
+     * @return
+     */
+    public List<String> allIds() {
+        return idsWithPrefix("");
+    }
+
+    /** Returns the hashes of all loose objects in this store,
+     * in lexicographic order.
+     * @return
+     */
+    public List<String> looseIds() {
+        ArrayList<String> ids = new ArrayList<>();
+        addLooseIds("", ids);
+        return ids;
+    }
+
+    /** Returns the hashes of the objects in this store written at or
+     * after CUTOFF, which gc keeps whether reachable or not: loose
+     * objects modified since then and the objects of packs written since
+     * then.
+     * @param cutoff
+     * @return
+     */
+    public List<String> recentIds(long cutoff) {
+        ArrayList<String> ids = new ArrayList<>();
+        for (Pack p: _packs.getPacks()) {
+            if (p.lastModified() >= cutoff) {
+                p.addIds(_kind, "", ids);
+            }
+        }
+        for (String id: looseIds()) {
+            if (objectFile(id).lastModified() >= cutoff) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /** Add the hashes of all loose objects whose hash starts with PREFIX
+     * to IDS.
+     * @param prefix
+     * @param ids
+     */
+    private void addLooseIds(String prefix, Collection<String> ids) {
+        if (prefix.length() >= FANOUT_LENGTH) {
+            addIds(prefix.substring(0, FANOUT_LENGTH), prefix, ids);
+            return;
+        }
+        List<String> subdirs = fanoutDirs();
+        for (String subdir: subdirs) {
+            if (subdir.startsWith(prefix)) {
+                addIds(subdir, prefix, ids);
+            }
+        }
+    }
+
+    /** Add the hashes of objects in fan-out subdirectory SUBDIR which
+     * start with PREFIX to IDS.
+     * @param subdir
+     * @param prefix
+     * @param ids
+     */
+    private void addIds(String subdir, String prefix,
+                        Collection<String> ids) {
+        List<String> names = Utils.plainFilenamesIn(
+                Utils.join(_folder, subdir));
+        if (names == null) {
+            return;
+        }
+        for (String name: names) {
+            String id = subdir + name;
+            if (id.startsWith(prefix)) {
+                ids.add(id);
+            }
+        }
+    }
+
+    /** Returns the names of the fan-out subdirectories, sorted.
+     * @return
+     */
+    private List<String> fanoutDirs() {
+        ArrayList<String> subdirs = new ArrayList<>();
+        String[] names = _folder.list();
+        if (names == null) {
+            return subdirs;
+        }
+        for (String name: names) {
+            if (name.length() == FANOUT_LENGTH
+                    && Utils.join(_folder, name).isDirectory()) {
+                subdirs.add(name);
+            }
+        }
+        subdirs.sort(null);
+        return subdirs;
+    }
+
+    /** Move objects stored flat in this directory by an older version of
+     * gitlet into their fan-out subdirectories. Returns the number of
+     * objects moved.
+     * @return
+     */
+    public int migrate() {
+        List<String> flat = Utils.plainFilenamesIn(_folder);
+        int moved = 0;
+        if (flat == null) {
+            return moved;
+        }
+        for (String name: flat) {
+            if (name.length() != Utils.UID_LENGTH) {
+                continue;
+            }
+            File target = newObjectFile(name);
+            if (target.exists() || Utils.join(_folder, name).renameTo(target)) {
+                Utils.join(_folder, name).delete();
+                moved += 1;
+            }
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,451 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/** Many objects stored back to back in one append-only pack file, with a
+ * sorted index file mapping each object hash to its offset in the pack.
+ * Both files are memory-mapped, so reading an object is a binary search
+ * of the index and a copy out of the pack, with no per-object open. As
+ * each file is mapped whole, into one buffer, a pack is kept under
+ * MAX_SIZE bytes.
+ * @author David Long */
+public class Pack {
+
+    /** Kind of a commit object. */
+    static final byte COMMIT = 0;
+
+    /** Kind of a blob object. */
+    static final byte BLOB = 1;
+
+    /** Kind of a tree object. */
+    static final byte TREE = 2;
+
+    /** Magic number at the start of a pack file ("GLPK"). */
+    private static final int PACK_MAGIC = 0x474c504b;
+
+    /** Magic number at the start of an index file ("GLIX"). */
+    private static final int IDX_MAGIC = 0x474c4958;
+
+    /** Version of the pack and index formats. */
+    private static final int VERSION = 1;
+
+    /** Length of the magic, version and count header of both files. */
+    private static final int HEADER_LENGTH = 12;
+
+    /** Length of an index record: hash, kind and offset. */
+    private static final int RECORD_LENGTH = Utils.UID_BYTES + 1 + 8;
+
+    /** Largest size of a pack file, the most one buffer can map. */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    /** The index file. */
+    private final File _idxFile;
+
+    /** The mapped index file. */
+    private final MappedByteBuffer _index;
+
+    /** The mapped pack file. */
+    private final MappedByteBuffer _data;
+
+    /** The number of objects in this pack. */
+    private final int _count;
+
+    /** Open the pack whose index file is IDXFILE.
+     * @param idxFile
+     */
+    public Pack(File idxFile) {
+        _idxFile = idxFile;
+        _index = map(idxFile);
+        _data = map(packFileOf(idxFile));
+        if (_index.getInt(0) != IDX_MAGIC || _index.getInt(4) != VERSION
+                || _data.getInt(0) != PACK_MAGIC) {
+            throw Utils.error("Corrupt pack %s.", idxFile.getName());
+        }
+        _count = _index.getInt(8);
+    }
+
+    /** Map the whole of FILE read-only into memory.
+     * @param file
+     * @return
+     */
+    private static MappedByteBuffer map(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Get the pack file belonging to index file IDXFILE.
+     * @param idxFile
+     * @return
+     */
+    static File packFileOf(File idxFile) {
+        String name = idxFile.getName();
+        return new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+    }
+
+    /** Get the number of objects in this pack.
+     * @return
+     */
+    public int size() {
+        return _count;
+    }
+
+    /** Get the time this pack was written.
+     * @return
+     */
+    public long lastModified() {
+        return _idxFile.lastModified();
+    }
+
+    /** Delete the files of this pack. What is already mapped stays
+     * readable. */
+    void delete() {
+        _idxFile.delete();
+        packFileOf(_idxFile).delete();
+    }
+
+    /** Compare the hash of index record RECORD with ID as unsigned bytes.
+     * @param record
+     * @param id
+     * @return
+     */
+    private int compareAt(int record, byte[] id) {
+        int base = HEADER_LENGTH + record * RECORD_LENGTH;
+        for (int i = 0; i < Utils.UID_BYTES; i += 1) {
+            int cmp = Integer.compare(_index.get(base + i) & 0xff,
+                    id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the first index record whose hash is not less than ID.
+     * @param id
+     * @return
+     */
+    private int lowerBound(byte[] id) {
+        int lo = 0;
+        int hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the index record of object HASH, or -1 if it is not in
+     * this pack.
+     * @param hash
+     * @return
+     */
+    private int find(String hash) {
+        byte[] id = Utils.hexToBytes(hash);
+        int record = lowerBound(id);
+        if (record < _count && compareAt(record, id) == 0) {
+            return record;
+        }
+        return -1;
+    }
+
+    /** Get the hash of index record RECORD.
+     * @param record
+     * @return
+     */
+    private String hashAt(int record) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        _index.get(HEADER_LENGTH + record * RECORD_LENGTH, id);
+        return Utils.bytesToHex(id, 0, id.length);
+    }
+
+    /** Get the kind of the object of index record RECORD.
+     * @param record
+     * @return
+     */
+    private byte kindAt(int record) {
+        return _index.get(HEADER_LENGTH + record * RECORD_LENGTH
+                + Utils.UID_BYTES);
+    }
+
+    /** Returns true if object HASH is in this pack.
+     * @param hash
+     * @return
+     */
+    public boolean contains(String hash) {
+        return find(hash) >= 0;
+    }
+
+    /** Returns the stored contents of object HASH, or null if it is not
+     * in this pack.
+     * @param hash
+     * @return
+     */
+    public byte[] read(String hash) {
+        ByteBuffer stored = slice(hash);
+        if (stored == null) {
+            return null;
+        }
+        byte[] contents = new byte[stored.remaining()];
+        stored.get(contents);
+        return contents;
+    }
+
+    /** Returns a stream of the stored contents of object HASH, read
+     * straight out of the mapped pack, or null if it is not in this pack.
+     * @param hash
+     * @return
+     */
+    public InputStream open(String hash) {
+        ByteBuffer stored = slice(hash);
+        if (stored == null) {
+            return null;
+        }
+        return new BufferInputStream(stored);
+    }
+
+    /** Returns the part of the mapped pack holding object HASH, or null
+     * if it is not in this pack.
+     * @param hash
+     * @return
+     */
+    private ByteBuffer slice(String hash) {
+        int record = find(hash);
+        if (record < 0) {
+            return null;
+        }
+        int offset = (int) _index.getLong(HEADER_LENGTH
+                + record * RECORD_LENGTH + Utils.UID_BYTES + 1);
+        return _data.slice(offset + 4, _data.getInt(offset));
+    }
+
+    /** Add the hashes of all objects of KIND in this pack which start
+     * with PREFIX to IDS.
+     * @param kind
+     * @param prefix
+     * @param ids
+     */
+    public void addIds(byte kind, String prefix, Collection<String> ids) {
+        StringBuilder low = new StringBuilder(prefix);
+        while (low.length() < Utils.UID_LENGTH) {
+            low.append('0');
+        }
+        for (int r = lowerBound(Utils.hexToBytes(low.toString()));
+             r < _count; r += 1) {
+            String hash = hashAt(r);
+            if (!hash.startsWith(prefix)) {
+                break;
+            }
+            if (kindAt(r) == kind) {
+                ids.add(hash);
+            }
+        }
+    }
+
+    /** Writes a new pack and its index into a packs directory. Objects
+     * are appended to a temporary pack as they are added, and the pack
+     * is named by the hash of their hashes once finished. */
+    static class Writer {
+
+        /** The directory the pack is written to. */
+        private final File _folder;
+
+        /** The temporary pack file being written. */
+        private final File _tmpPack;
+
+        /** The stream appending to the temporary pack. */
+        private final DataOutputStream _out;
+
+        /** Digest of the hashes of the objects added, which names
+         * the pack. */
+        private final MessageDigest _digest;
+
+        /** The index record of every object added. */
+        private final ArrayList<Record> _records = new ArrayList<>();
+
+        /** Number of bytes written to the pack so far. */
+        private long _size;
+
+        /** A writer of a new pack in FOLDER.
+         * @param folder
+         */
+        Writer(File folder) {
+            _folder = folder;
+            try {
+                _digest = MessageDigest.getInstance("SHA-1");
+                _tmpPack = File.createTempFile("tmp-", ".pack", folder);
+                _out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(_tmpPack)));
+                _out.writeInt(PACK_MAGIC);
+                _out.writeInt(VERSION);
+                _out.writeInt(0);
+                _size = HEADER_LENGTH;
+            } catch (IOException | NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Get the number of bytes written to the pack so far.
+         * @return
+         */
+        long size() {
+            return _size;
+        }
+
+        /** Get the number of objects added so far.
+         * @return
+         */
+        int count() {
+            return _records.size();
+        }
+
+        /** Append object HASH of KIND with stored contents CONTENTS.
+         * @param hash
+         * @param kind
+         * @param contents
+         */
+        void add(String hash, byte kind, byte[] contents) {
+            if (_size + 4 + contents.length > MAX_SIZE) {
+                throw Utils.error("Pack too large.");
+            }
+            try {
+                _out.writeInt(contents.length);
+                _out.write(contents);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Record r = new Record(Utils.hexToBytes(hash), kind, _size);
+            _records.add(r);
+            _digest.update(r._id);
+            _size += 4 + contents.length;
+        }
+
+        /** Write the index and move the pack into place. Returns the
+         * index file of the new pack. If anything fails, the temporary
+         * pack and index are deleted.
+         * @return
+         */
+        File finish() {
+            _records.sort((r1, r2) -> Arrays.compareUnsigned(r1._id, r2._id));
+            byte[] name = _digest.digest();
+            String base = "pack-" + Utils.bytesToHex(name, 0, name.length);
+            File idxFile = new File(_folder, base + ".idx");
+            File tmpIdx = new File(_folder, base + ".idx.tmp");
+            try {
+                _out.close();
+                try (RandomAccessFile raf = new RandomAccessFile(_tmpPack,
+                        "rw")) {
+                    raf.seek(8);
+                    raf.writeInt(_records.size());
+                }
+                try (DataOutputStream idx = new DataOutputStream(
+                        new BufferedOutputStream(
+                            new FileOutputStream(tmpIdx)))) {
+                    idx.writeInt(IDX_MAGIC);
+                    idx.writeInt(VERSION);
+                    idx.writeInt(_records.size());
+                    for (Record r: _records) {
+                        idx.write(r._id);
+                        idx.writeByte(r._kind);
+                        idx.writeLong(r._offset);
+                    }
+                }
+            } catch (IOException excp) {
+                _tmpPack.delete();
+                tmpIdx.delete();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (!_tmpPack.renameTo(packFileOf(idxFile))
+                    || !tmpIdx.renameTo(idxFile)) {
+                _tmpPack.delete();
+                tmpIdx.delete();
+                throw Utils.error("Could not write pack %s.", base);
+            }
+            return idxFile;
+        }
+    }
+
+    /** The index record of one object in a pack being written. */
+    private static class Record {
+
+        /** The hash of the object. */
+        private final byte[] _id;
+
+        /** The kind of the object. */
+        private final byte _kind;
+
+        /** The offset of the object in the pack. */
+        private final long _offset;
+
+        /** A record of object ID of KIND at OFFSET.
+         * @param id
+         * @param kind
+         * @param offset
+         */
+        Record(byte[] id, byte kind, long offset) {
+            _id = id;
+            _kind = kind;
+            _offset = offset;
+        }
+    }
+
+    /** A stream of the bytes remaining in a buffer. */
+    private static class BufferInputStream extends InputStream {
+
+        /** The buffer read from. */
+        private final ByteBuffer _buffer;
+
+        /** A stream of the bytes remaining in BUFFER.
+         * @param buffer
+         */
+        BufferInputStream(ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!_buffer.hasRemaining()) {
+                return -1;
+            }
+            return _buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!_buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, _buffer.remaining());
+            _buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return _buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/** All the packs of a gitlet repository, kept in its packs directory.
+ * Packs are opened on first use.
+ * @author David Long */
+public class Packs {
+
+    /** The directory containing the packs. */
+    private final File _folder;
+
+    /** The open packs, or null if they have not been opened yet. */
+    private ArrayList<Pack> _packs;
+
+    /** Packs of the repository whose .gitlet directory is GITLETFOLDER.
+     * @param gitletFolder
+     */
+    public Packs(File gitletFolder) {
+        _folder = Utils.join(gitletFolder, "packs");
+    }
+
+    /** Get the open packs, opening them if needed.
+     * @return
+     */
+    private synchronized ArrayList<Pack> packs() {
+        if (_packs == null) {
+            _packs = new ArrayList<>();
+            String[] names = _folder.list();
+            if (names != null) {
+                for (String name: names) {
+                    if (name.endsWith(".idx")) {
+                        _packs.add(new Pack(Utils.join(_folder, name)));
+                    }
+                }
+            }
+        }
+        return _packs;
+    }
+
+    /** Drop the packs opened so far, so that the packs directory is
+     * listed again when they are next used. */
+    public synchronized void reload() {
+        _packs = null;
+    }
+
+    /** Returns true if object HASH is in some pack.
+     * @param hash
+     * @return
+     */
+    public boolean contains(String hash) {
+        for (Pack p: packs()) {
+            if (p.contains(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the stored contents of object HASH, or null if it is not
+     * in any pack.
+     * @param hash
+     * @return
+     */
+    public byte[] read(String hash) {
+        for (Pack p: packs()) {
+            byte[] contents = p.read(hash);
+            if (contents != null) {
+                return contents;
+            }
+        }
+        return null;
+    }
+
+    /** Returns a stream of the stored contents of object HASH, or null
+     * if it is not in any pack.
+     * @param hash
+     * @return
+     */
+    public InputStream open(String hash) {
+        for (Pack p: packs()) {
+            InputStream stored = p.open(hash);
+            if (stored != null) {
+                return stored;
+            }
+        }
+        return null;
+    }
+
+    /** Add the hashes of all packed objects of KIND which start with
+     * PREFIX to IDS.
+     * @param kind
+     * @param prefix
+     * @param ids
+     */
+    public void addIds(byte kind, String prefix, Collection<String> ids) {
+        for (Pack p: packs()) {
+            p.addIds(kind, prefix, ids);
+        }
+    }
+
+    /** Start writing a new pack.
+     * @return
+     */
+    public Pack.Writer newWriter() {
+        _folder.mkdir();
+        return new Pack.Writer(_folder);
+    }
+
+    /** Open the pack whose index file is IDXFILE, just written by a
+     * Pack.Writer, alongside the others.
+     * @param idxFile
+     */
+    public void addPack(File idxFile) {
+        packs().add(new Pack(idxFile));
+    }
+
+    /** Get all the packs.
+     * @return
+     */
+    public List<Pack> getPacks() {
+        return new ArrayList<>(packs());
+    }
+
+    /** Stop reading pack P and delete its files.
+     * @param p
+     */
+    public void removePack(Pack p) {
+        packs().remove(p);
+        p.delete();
+    }
+}
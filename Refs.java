@@ -0,0 +1,138 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Branch heads and the HEAD pointer of a gitlet repository.
+ * Every branch is one small file under refs/heads holding the hash
+ * of its head commit, and HEAD holds the name of the current branch,
+ * so a command only reads and writes the pointers it uses. Each is
+ * replaced atomically, through a temporary file in the .gitlet
+ * directory, so a reader never sees one half written and an interrupted
+ * write leaves no stray file among the branches.
+ * @author David Long */
+public class Refs {
+
+    /** Name of the file holding the current branch. */
+    private static final String HEAD_NAME = "HEAD";
+
+    /** The .gitlet directory, in which temporary files are written. */
+    private final File _gitletFolder;
+
+    /** The directory containing one file per branch head. */
+    private final File _headsFolder;
+
+    /** The file holding the name of the current branch. */
+    private final File _headFile;
+
+    /** Refs of the repository whose .gitlet directory is GITLETFOLDER.
+     * @param gitletFolder
+     */
+    public Refs(File gitletFolder) {
+        _gitletFolder = gitletFolder;
+        _headsFolder = Utils.join(gitletFolder, "refs", "heads");
+        _headFile = Utils.join(gitletFolder, HEAD_NAME);
+    }
+
+    /** Create the refs directories of a new repository. */
+    public void init() {
+        _headsFolder.mkdirs();
+    }
+
+    /** Returns true if HEAD exists in the repository whose .gitlet
+     * directory is GITLETFOLDER, which it does in every repository but one
+     * made by an older version and not yet converted.
+     * @param gitletFolder
+     * @return
+     */
+    public static boolean hasHead(File gitletFolder) {
+        return Utils.join(gitletFolder, HEAD_NAME).isFile();
+    }
+
+    /** Get the name of the current branch.
+     * @return
+     */
+    public String getCurrBranch() {
+        return Utils.readContentsAsString(_headFile);
+    }
+
+    /** Set the current branch to be BRANCH.
+     * @param branch
+     */
+    public void setCurrBranch(String branch) {
+        write(_headFile, branch);
+    }
+
+    /** Get the hash of the commit pointed by the current branch.
+     * @return
+     */
+    public String getCurrHeadHash() {
+        return getHeadHash(getCurrBranch());
+    }
+
+    /** Point the current branch at HASH.
+     * @param hash
+     */
+    public void setCurrBranchHash(String hash) {
+        addBranchHash(getCurrBranch(), hash);
+    }
+
+    /** Get the hash of the head commit of BRANCHNAME, or null if
+     * there is no such branch.
+     * @param branchName
+     * @return
+     */
+    public String getHeadHash(String branchName) {
+        File ref = Utils.join(_headsFolder, branchName);
+        if (!ref.isFile()) {
+            return null;
+        }
+        return Utils.readContentsAsString(ref);
+    }
+
+    /** Returns true if branch BRANCHNAME exists.
+     * @param branchName
+     * @return
+     */
+    public boolean hasBranch(String branchName) {
+        return Utils.join(_headsFolder, branchName).isFile();
+    }
+
+    /** Add branch BRANCHNAME with HASH if there is no such branch.
+     * Otherwise, point BRANCHNAME at HASH.
+     * @param branchName
+     * @param hash
+     */
+    public void addBranchHash(String branchName, String hash) {
+        write(Utils.join(_headsFolder, branchName), hash);
+    }
+
+    /** Replace FILE with CONTENTS atomically.
+     * @param file
+     * @param contents
+     */
+    private void write(File file, String contents) {
+        Utils.writeAtomically(file, contents.getBytes(StandardCharsets.UTF_8),
+                _gitletFolder);
+    }
+
+    /** Remove branch BRANCHNAME if it exists.
+     * @param branchName
+     */
+    public void removeBranch(String branchName) {
+        Utils.join(_headsFolder, branchName).delete();
+    }
+
+    /** Get the names of all branches.
+     * @return
+     */
+    public List<String> getBranches() {
+        List<String> branches = Utils.plainFilenamesIn(_headsFolder);
+        if (branches == null) {
+            return new ArrayList<>();
+        }
+        return branches;
+    }
+}
@@ -2,18 +2,18 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.TreeMap;
 
 /** Going remote.
  * @author David Long */
 public class RemoteInfo implements Serializable {
 
-    /** List of file names that are in remote dir. */
-    private ArrayList<String> _remotePlace;
+    /** Maps the name of each remote to its .gitlet directory. */
+    private TreeMap<String, String> _remotePlace;
 
     /** Constructor of remoteInfo class. */
     public RemoteInfo() {
-        _remotePlace = new ArrayList<>();
+        _remotePlace = new TreeMap<>();
     }
 
     /** Add remote directory. Add REMOTENAME REMOTEDIR.
@@ -21,34 +21,34 @@ public class RemoteInfo implements Serializable {
      * @param remoteDir
      */
     public void addRemoteDir(String remoteName, String remoteDir) {
-        if (_remotePlace.contains(remoteName)) {
+        if (_remotePlace.containsKey(remoteName)) {
             System.out.println("A remote with that name already exists.");
             return;
         }
-        remoteDir.replaceAll("/", File.separator);
-        _remotePlace.add(remoteName);
-        Utils.writeContents(Utils.join(Main.REMOTE_FOLDER, remoteName),
-                Utils.readContents(new File(remoteDir)));
+        _remotePlace.put(remoteName, remoteDir.replace("/", File.separator));
     }
 
     /** Remove remoteDir REMOTENAME.
      * @param remoteName
      */
     public void removeRemoteDir(String remoteName) {
-        if (!_remotePlace.contains(remoteName)) {
+        if (!_remotePlace.containsKey(remoteName)) {
             System.out.println("A remote with that name does not exist.");
             return;
         }
         _remotePlace.remove(remoteName);
-        File remoteDir = Utils.join(Main.REMOTE_FOLDER, remoteName);
-        remoteDir.delete();
     }
 
-    /** Get REMOTENAME.
+    /** Get the .gitlet directory of REMOTENAME, or null if there is
+     * no such remote.
      * @param remoteName
      * @return
      */
     public File getRemoteDir(String remoteName) {
-        return Utils.join(Main.REMOTE_FOLDER, remoteName);
+        String remoteDir = _remotePlace.get(remoteName);
+        if (remoteDir == null) {
+            return null;
+        }
+        return new File(remoteDir);
     }
 }
@@ -1,55 +1,101 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
-/** The staging area class.
+/** The staging area class. A file staged for addition is already
+ * stored as a blob, so the staging area only maps its path to the blob
+ * hash. It is stored in the binary index file along with a StatCache of
+ * the working files, so status only has to stat files that have not
+ * changed. The index file ends with the SHA-1 hash of everything before
+ * it.
  * @author David Long */
 public class StagingArea implements Serializable {
 
-    /** The directory containing files staged for addition. */
+    /** Serialization version, fixed so that adding methods does not
+     * make stored objects unreadable. */
+    private static final long serialVersionUID = -3210697712275569239L;
+
+    /** The directory in which older versions kept copies of the files
+     * staged for addition. */
     private static final File ADDITION_FOLDER =
             Utils.join(Main.STAGING_FOLDER, "addition");
 
-    /** The directory containing files staged for removal. */
-    private static final File REMOVAL_FOLDER =
-            Utils.join(Main.STAGING_FOLDER, "removal");
-
-    /** List of file names that are staged for addition. */
+    /** List of file names that are staged for addition, in a staging
+     * area Java-serialized by an older version. */
     private ArrayList<String> _addition;
 
-    /** List of file names that are staged for removal. */
+    /** List of file names that are staged for removal, in a staging
+     * area Java-serialized by an older version. */
     private ArrayList<String> _removal;
 
+    /** Magic number at the start of an index file ("GLSI"). */
+    private static final int INDEX_MAGIC = 0x474c5349;
+
+    /** Version of the index file format. */
+    private static final int INDEX_VERSION = 1;
+
+    /** First bytes of an index file written by Java serialization. */
+    private static final int SERIALIZED_MAGIC = 0xaced;
+
+    /** The blob hash of each file staged for addition, by path. */
+    private transient TreeMap<String, String> _stagedHashes =
+        new TreeMap<>();
+
+    /** Names of the files staged for removal. */
+    private transient TreeSet<String> _removed = new TreeSet<>();
+
+    /** The stat data of working files. */
+    private transient StatCache _stats = new StatCache(0);
+
     /** Constructor of Staging Area class. */
     public StagingArea() {
-        _addition = new ArrayList<>();
-        _removal = new ArrayList<>();
-        ADDITION_FOLDER.mkdir();
-        REMOVAL_FOLDER.mkdir();
     }
 
-    /** Get addition area.
+    /** Get addition area, sorted.
      * @return
      */
     public ArrayList<String> getAdditionArea() {
-        return _addition;
+        return new ArrayList<>(_stagedHashes.keySet());
     }
 
-    /** Get removal area.
+    /** Get removal area, sorted.
      * @return
      */
     public ArrayList<String> getRemovalArea() {
-        return _removal;
+        return new ArrayList<>(_removed);
     }
 
-    /** Get staged file FILENAME for addition.
+    /** Get the blob hash of each file staged for addition, by path.
+     * @return
+     */
+    public SortedMap<String, String> getStagedHashes() {
+        return Collections.unmodifiableSortedMap(_stagedHashes);
+    }
+
+    /** Get the copy an older version kept of file FILENAME staged for
+     * addition.
      * @param fileName
      * @return
      */
-    public File getStagedAdditionFile(String fileName) {
+    public static File getStagedAdditionFile(String fileName) {
         return Utils.join(ADDITION_FOLDER, fileName);
     }
 
@@ -57,86 +103,178 @@ public class StagingArea implements Serializable {
      * @param fileName
      */
     public void cancelStagedAddition(String fileName) {
-        String fN = filteredAddition(fileName);
-        if (fN != null) {
-            _addition.remove(fN);
-            File addition = Utils.join(ADDITION_FOLDER, fileName);
-            addition.delete();
-        }
+        _stagedHashes.remove(fileName);
     }
 
-    /** Stage file FILENAME for addition.
+    /** Stage file FILENAME, already stored as blob HASH, for addition.
      * @param fileName
+     * @param hash
      */
-    public void stageForAddition(String fileName) {
-        String fN = filteredAddition(fileName);
-        if (fN == null) {
-            _addition.add(fileName);
-            Utils.writeContents(Utils.join(ADDITION_FOLDER, fileName),
-                    Utils.readContents(Utils.join(Main.CWD, fileName)));
-        }
+    public void stageForAddition(String fileName, String hash) {
+        _stagedHashes.put(fileName, hash);
     }
 
-    /** Delete all files staged for addition. */
-    public void deleteAllAddition() {
-        _addition.clear();
-        List<String> additionFiles = Utils.plainFilenamesIn(ADDITION_FOLDER);
-        for (String additionName: additionFiles) {
-            File addition = Utils.join(ADDITION_FOLDER, additionName);
-            addition.delete();
-        }
+    /** Get the blob hash of file FILENAME staged for addition.
+     * @param fileName
+     * @return
+     */
+    public String getStagedHash(String fileName) {
+        return _stagedHashes.get(fileName);
     }
 
-    /** Get file FILENAME that is staged for removal.
-     * @param fileName
+    /** Get the hash of the contents of each working file in NAMES,
+     * reading the changed ones in parallel.
+     * @param names
      * @return
      */
-    public File getStagedRemovalFile(String fileName) {
-        return Utils.join(REMOVAL_FOLDER, fileName);
+    public Map<String, String> getWorkingHashes(List<String> names) {
+        return _stats.hashAll(names);
     }
 
-    /** Clear file FILENAME staged for removal.
+    /** Get the hash of the contents of each working file in NAMES. The
+     * ones that changed since they were last hashed are read in
+     * parallel by HASHER, which returns the hash, rather than hashed
+     * here.
+     * @param names
+     * @param hasher
+     * @return
+     */
+    public Map<String, String> getWorkingHashes(List<String> names,
+            Function<String, String> hasher) {
+        return _stats.hashAll(names, hasher);
+    }
+
+    /** Record that working file FILENAME was just written with the
+     * contents of blob HASH.
      * @param fileName
+     * @param hash
      */
-    public void cancelStagedRemovel(String fileName) {
-        String fN = filteredRemoval(fileName);
-        if (fN != null) {
-            _removal.remove(fN);
-            File removal = Utils.join(REMOVAL_FOLDER, fileName);
-            removal.delete();
+    public void recordWorking(String fileName, String hash) {
+        _stats.record(fileName, hash);
+    }
+
+    /** Forget the stat data of the working files in NAMES, which are
+     * no longer tracked.
+     * @param names
+     */
+    public void forgetWorking(Collection<String> names) {
+        _stats.forget(names);
+    }
+
+    /** Returns true if the stat data of working files changed since
+     * this staging area was read.
+     * @return
+     */
+    public boolean isWorkingChanged() {
+        return _stats.isChanged();
+    }
+
+    /** Write this staging area to index file INDEXFILE, which is
+     * replaced atomically, so that a reader never sees it half written.
+     * @param indexFile
+     */
+    public void write(File indexFile) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(_stagedHashes.size());
+            for (Map.Entry<String, String> e: _stagedHashes.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.write(Utils.hexToBytes(e.getValue()));
+            }
+            out.writeInt(_removed.size());
+            for (String name: _removed) {
+                out.writeUTF(name);
+            }
+            _stats.write(out);
+            out.write(Utils.hexToBytes(Utils.sha1(bytes.toByteArray())));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
+        Utils.writeAtomically(indexFile, bytes.toByteArray());
     }
 
-    /** Stage file FILENAME for removal.
-     * @param fileName
+    /** Returns the staging area read from index file INDEXFILE, or an
+     * empty one if there is no index file yet.
+     * @param indexFile
+     * @return
      */
-    public void stageForRemoval(String fileName) {
-        String fN = filteredRemoval(fileName);
-        if (fN == null) {
-            _removal.add(fileName);
-            Utils.writeContents(Utils.join(REMOVAL_FOLDER, fileName),
-                    Utils.readContents(Utils.join(Main.CWD, fileName)));
+    public static StagingArea read(File indexFile) {
+        if (!indexFile.exists()) {
+            return new StagingArea();
         }
+        byte[] data = Utils.readContents(indexFile);
+        if (data.length >= 2
+                && ((data[0] & 0xff) << 8 | data[1] & 0xff)
+                    == SERIALIZED_MAGIC) {
+            StagingArea stage = Utils.deserialize(data, StagingArea.class);
+            stage._stagedHashes = new TreeMap<>();
+            for (String name: stage._addition) {
+                stage._stagedHashes.put(name,
+                        Utils.fileSha1(getStagedAdditionFile(name)));
+            }
+            stage._removed = new TreeSet<>(stage._removal);
+            stage._addition = null;
+            stage._removal = null;
+            stage._stats = new StatCache(0);
+            return stage;
+        }
+        int end = data.length - Utils.UID_BYTES;
+        if (end < 0 || !Utils.sha1(Arrays.copyOf(data, end)).equals(
+                Utils.bytesToHex(data, end, Utils.UID_BYTES))) {
+            throw Utils.error("Corrupt index file.");
+        }
+        StagingArea stage = new StagingArea();
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(data, 0, end));
+        try {
+            if (in.readInt() != INDEX_MAGIC
+                    || in.readInt() != INDEX_VERSION) {
+                throw Utils.error("Unknown index file format.");
+            }
+            byte[] id = new byte[Utils.UID_BYTES];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = in.readUTF();
+                in.readFully(id);
+                stage._stagedHashes.put(name,
+                        Utils.bytesToHex(id, 0, id.length));
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                stage._removed.add(in.readUTF());
+            }
+            stage._stats = new StatCache(Files.getLastModifiedTime(
+                    indexFile.toPath()).to(TimeUnit.NANOSECONDS));
+            stage._stats.read(in);
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt index file.");
+        }
+        return stage;
+    }
+
+    /** Delete all files staged for addition. */
+    public void deleteAllAddition() {
+        _stagedHashes.clear();
     }
 
-    /** Manually stage for remove FILENAME.
+    /** Clear file FILENAME staged for removal.
      * @param fileName
      */
-    public void manualAddRemoval(String fileName) {
-        String fN = filteredRemoval(fileName);
-        if (fN == null) {
-            _removal.add(fileName);
-        }
+    public void cancelStagedRemovel(String fileName) {
+        _removed.remove(fileName);
+    }
+
+    /** Stage file FILENAME for removal.
+     * @param fileName
+     */
+    public void stageForRemoval(String fileName) {
+        _removed.add(fileName);
     }
 
     /** Delete all files staged for removal.*/
     public void deleteAllRemoval() {
-        _removal.clear();
-        List<String> removalFiles = Utils.plainFilenamesIn(REMOVAL_FOLDER);
-        for (String additionName: removalFiles) {
-            File removal = Utils.join(REMOVAL_FOLDER, additionName);
-            removal.delete();
-        }
+        _removed.clear();
     }
 
     /** Delete all files in the staging area. */
@@ -145,31 +283,19 @@ public class StagingArea implements Serializable {
         deleteAllRemoval();
     }
 
-    /** A helper function to help loop through files
-     * that are staged for removal to get file FILENAME.
+    /** Returns FILENAME if it is staged for removal, or null.
      * @param fileName
      * @return
      */
     public String filteredRemoval(String fileName) {
-        for (String f: _removal) {
-            if (f.equals(fileName)) {
-                return f;
-            }
-        }
-        return null;
+        return _removed.contains(fileName) ? fileName : null;
     }
 
-    /** A helper function to help loop through files
-     * that are staged for addition to get file FILENAME.
+    /** Returns FILENAME if it is staged for addition, or null.
      * @param fileName
      * @return
      */
     public String filteredAddition(String fileName) {
-        for (String f: _addition) {
-            if (f.equals(fileName)) {
-                return f;
-            }
-        }
-        return null;
+        return _stagedHashes.containsKey(fileName) ? fileName : null;
     }
 }
@@ -0,0 +1,239 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/** The blob hash of each working file last hashed, with the size,
+ * modification time and file key (the inode on Unix) it had then. A file
+ * whose stat data still matches is not read again. An entry whose
+ * modification time is not older than the index file itself is racy:
+ * the file may have changed again within the same timestamp tick after
+ * it was hashed, so it is hashed again anyway, and the cache counts as
+ * changed so that the index file is written again, after which the entry
+ * is no longer racy.
+ * @author David Long */
+class StatCache {
+
+    /** The entries, by file name. */
+    private final TreeMap<String, Entry> _entries = new TreeMap<>();
+
+    /** Modification time, in nanoseconds, of the index file this cache
+     *  was read from, or 0 for a new cache. */
+    private final long _racyCutoff;
+
+    /** True if an entry was added, changed or removed since this cache
+     *  was read. */
+    private boolean _changed;
+
+    /** An empty cache, read from an index file modified at RACYCUTOFF
+     *  nanoseconds.
+     *  @param racyCutoff
+     */
+    StatCache(long racyCutoff) {
+        _racyCutoff = racyCutoff;
+    }
+
+    /** Returns true if an entry was added, changed or removed since this
+     *  cache was read.
+     *  @return
+     */
+    boolean isChanged() {
+        return _changed;
+    }
+
+    /** Returns the hash of the contents of each working file in NAMES,
+     *  which must all exist. The files that have to be read are hashed
+     *  in parallel by Workers.
+     *  @param names
+     *  @return
+     */
+    Map<String, String> hashAll(List<String> names) {
+        return hashAll(names,
+            name -> Utils.fileSha1(Utils.join(Main.CWD, name)));
+    }
+
+    /** Returns the hash of the contents of each working file in NAMES,
+     *  which must all exist, as for hashAll, but with the files that
+     *  have to be read passed to HASHER, which reads one and returns its
+     *  hash.
+     *  @param names
+     *  @param hasher
+     *  @return
+     */
+    Map<String, String> hashAll(List<String> names,
+                                Function<String, String> hasher) {
+        HashMap<String, String> hashes = new HashMap<>();
+        ArrayList<String> stale = new ArrayList<>();
+        ArrayList<BasicFileAttributes> staleAttrs = new ArrayList<>();
+        for (String name: names) {
+            BasicFileAttributes attrs = stat(Utils.join(Main.CWD, name));
+            Entry e = _entries.get(name);
+            if (e != null && e.matches(attrs) && e._mtime < _racyCutoff) {
+                hashes.put(name, e._hash);
+            } else {
+                _changed |= e != null;
+                stale.add(name);
+                staleAttrs.add(attrs);
+            }
+        }
+        List<String> computed = Workers.map(stale, hasher);
+        for (int i = 0; i < stale.size(); i += 1) {
+            put(stale.get(i), staleAttrs.get(i), computed.get(i));
+            hashes.put(stale.get(i), computed.get(i));
+        }
+        return hashes;
+    }
+
+    /** Record that working file FILENAME, just written, holds the
+     *  contents of blob HASH.
+     *  @param fileName
+     *  @param hash
+     */
+    void record(String fileName, String hash) {
+        put(fileName, stat(Utils.join(Main.CWD, fileName)), hash);
+    }
+
+    /** Drop the entries of the files in NAMES.
+     *  @param names
+     */
+    void forget(Collection<String> names) {
+        _changed |= _entries.keySet().removeAll(names);
+    }
+
+    /** Set the entry of FILENAME to ATTRS and HASH.
+     *  @param fileName
+     *  @param attrs
+     *  @param hash
+     */
+    private void put(String fileName, BasicFileAttributes attrs,
+                     String hash) {
+        Entry e = new Entry(attrs.size(),
+                attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                fileKey(attrs), hash);
+        if (!e.equals(_entries.put(fileName, e))) {
+            _changed = true;
+        }
+    }
+
+    /** Returns the stat data of FILE, not following links.
+     *  @param file
+     *  @return
+     */
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a number identifying the file of ATTRS, such as its
+     *  device and inode, or 0 where the file system has none.
+     *  @param attrs
+     *  @return
+     */
+    private static int fileKey(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? 0 : key.hashCode();
+    }
+
+    /** Write the entries to OUT.
+     *  @param out
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(_entries.size());
+        for (Map.Entry<String, Entry> me: _entries.entrySet()) {
+            Entry e = me.getValue();
+            out.writeUTF(me.getKey());
+            out.writeLong(e._size);
+            out.writeLong(e._mtime);
+            out.writeInt(e._key);
+            out.write(Utils.hexToBytes(e._hash));
+        }
+    }
+
+    /** Read entries written by write from IN.
+     *  @param in
+     */
+    void read(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        byte[] id = new byte[Utils.UID_BYTES];
+        for (int i = 0; i < n; i += 1) {
+            String name = in.readUTF();
+            long size = in.readLong();
+            long mtime = in.readLong();
+            int key = in.readInt();
+            in.readFully(id);
+            _entries.put(name, new Entry(size, mtime, key,
+                    Utils.bytesToHex(id, 0, id.length)));
+        }
+    }
+
+    /** The stat data and hash of one working file. */
+    private static class Entry {
+
+        /** Size of the file. */
+        private final long _size;
+
+        /** Modification time of the file, in nanoseconds. */
+        private final long _mtime;
+
+        /** File key of the file. */
+        private final int _key;
+
+        /** Hash of the contents of the file. */
+        private final String _hash;
+
+        /** An entry of a file of SIZE, MTIME and KEY holding HASH.
+         *  @param size
+         *  @param mtime
+         *  @param key
+         *  @param hash
+         */
+        Entry(long size, long mtime, int key, String hash) {
+            _size = size;
+            _mtime = mtime;
+            _key = key;
+            _hash = hash;
+        }
+
+        /** Returns true if ATTRS has the stat data of this entry.
+         *  @param attrs
+         *  @return
+         */
+        boolean matches(BasicFileAttributes attrs) {
+            return attrs.size() == _size && fileKey(attrs) == _key
+                && attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                    == _mtime;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Entry)) {
+                return false;
+            }
+            Entry e = (Entry) other;
+            return _size == e._size && _mtime == e._mtime && _key == e._key
+                && _hash.equals(e._hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash.hashCode();
+        }
+    }
+}
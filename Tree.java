@@ -0,0 +1,508 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** One directory of a commit: the name and blob hash of each file
+ * directly in it, and the name and tree hash of each of its
+ * subdirectories. A tree is named by the SHA-1 hash of its encoding, so
+ * a directory keeps its hash for as long as nothing under it changes,
+ * and two trees with the same hash hold the same files. Comparing,
+ * updating and copying trees therefore never descend into a subdirectory
+ * whose hash is the same on both sides. A tree is only stored once all
+ * the trees and blobs under it are.
+ * In order, an encoding holds:
+ * <ol>
+ *   <li>the bytes 'G', 'L', 'T' and the format version;</li>
+ *   <li>the number of entries (4 bytes);</li>
+ *   <li>for each file, sorted by name, and then for each subdirectory,
+ *   sorted by name, the kind of the entry (1 byte), the length of its
+ *   name (2 bytes), the name and its 20-byte hash.</li>
+ * </ol>
+ * @author David Long */
+class Tree {
+
+    /** Bytes starting every encoded tree. */
+    private static final byte[] MAGIC = {'G', 'L', 'T'};
+
+    /** Version of the encoding. */
+    private static final byte VERSION = 1;
+
+    /** Kind of an entry naming a blob. */
+    private static final byte FILE = 0;
+
+    /** Kind of an entry naming a tree. */
+    private static final byte DIRECTORY = 1;
+
+    /** The blob hash of each file, by name. */
+    private final TreeMap<String, String> _files = new TreeMap<>();
+
+    /** The tree hash of each subdirectory, by name. */
+    private final TreeMap<String, String> _directories = new TreeMap<>();
+
+    /** Get the blob hash of each file directly in this tree, by name.
+     * @return
+     */
+    Map<String, String> getFiles() {
+        return Collections.unmodifiableMap(_files);
+    }
+
+    /** Get the tree hash of each subdirectory of this tree, by name.
+     * @return
+     */
+    Map<String, String> getDirectories() {
+        return Collections.unmodifiableMap(_directories);
+    }
+
+    /** Returns true if this tree has no entries.
+     * @return
+     */
+    boolean isEmpty() {
+        return _files.isEmpty() && _directories.isEmpty();
+    }
+
+    /** Returns the encoding of this tree.
+     * @return
+     */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(_files.size() + _directories.size());
+            writeEntries(out, FILE, _files);
+            writeEntries(out, DIRECTORY, _directories);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Write each of ENTRIES to OUT as an entry of KIND.
+     * @param out
+     * @param kind
+     * @param entries
+     */
+    private static void writeEntries(DataOutputStream out, byte kind,
+                                     Map<String, String> entries)
+        throws IOException {
+        for (Map.Entry<String, String> e: entries.entrySet()) {
+            byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(kind);
+            out.writeShort(name.length);
+            out.write(name);
+            out.write(Utils.hexToBytes(e.getValue()));
+        }
+    }
+
+    /** Returns the tree encoded in DATA.
+     * @param data
+     * @return
+     */
+    static Tree decode(byte[] data) {
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(data));
+        Tree tree = new Tree();
+        try {
+            in.skipNBytes(MAGIC.length);
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw Utils.error("Unknown tree version %d.", version);
+            }
+            byte[] id = new byte[Utils.UID_BYTES];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                byte kind = in.readByte();
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                in.readFully(id);
+                (kind == DIRECTORY ? tree._directories : tree._files).put(
+                        new String(name, StandardCharsets.UTF_8),
+                        Utils.bytesToHex(id, 0, id.length));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt tree.");
+        }
+        return tree;
+    }
+
+    /** Returns tree HASH of STORE.
+     * @param store
+     * @param hash
+     * @return
+     */
+    static Tree read(ObjectStore store, String hash) {
+        return decode(ObjectFormat.rawContents(store.read(hash)));
+    }
+
+    /** Store this tree in STORE, unless it is there already, and
+     * return its hash.
+     * @param store
+     * @return
+     */
+    String write(ObjectStore store) {
+        byte[] encoded = encode();
+        String hash = Utils.sha1(encoded);
+        if (!store.contains(hash)) {
+            store.write(hash, encoded);
+        }
+        return hash;
+    }
+
+    /** Returns the blob hash of the file at PATH, a '/'-separated path,
+     * in tree ROOT of STORE, or null if there is none. Only the trees
+     * along PATH are read.
+     * @param store
+     * @param root
+     * @param path
+     * @return
+     */
+    static String lookup(ObjectStore store, String root, String path) {
+        String[] names = path.split("/");
+        String hash = root;
+        for (int i = 0; i < names.length - 1 && hash != null; i += 1) {
+            hash = read(store, hash)._directories.get(names[i]);
+        }
+        return hash == null ? null
+            : read(store, hash)._files.get(names[names.length - 1]);
+    }
+
+    /** Put the path of each file under tree HASH of STORE, prefixed by
+     * PREFIX, and its blob hash in FILES.
+     * @param store
+     * @param hash
+     * @param prefix
+     * @param files
+     */
+    static void flatten(ObjectStore store, String hash, String prefix,
+                        Map<String, String> files) {
+        Tree tree = read(store, hash);
+        for (Map.Entry<String, String> e: tree._files.entrySet()) {
+            files.put(prefix + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e: tree._directories.entrySet()) {
+            flatten(store, e.getValue(), prefix + e.getKey() + "/", files);
+        }
+    }
+
+    /** Returns the blob hash of each of the files at PATHS in tree ROOT
+     * of STORE that it has, by path. Each tree along the paths is read
+     * once, however many of them go through it.
+     * @param store
+     * @param root
+     * @param paths
+     * @return
+     */
+    static Map<String, String> lookupAll(ObjectStore store, String root,
+                                         Collection<String> paths) {
+        TreeMap<String, String> found = new TreeMap<>();
+        lookupAll(store, root, new TreeSet<>(paths), "", found);
+        return found;
+    }
+
+    /** Put the blob hash of each of the files at PATHS, relative to tree
+     * HASH of STORE, in FOUND under its path prefixed by PREFIX.
+     * @param store
+     * @param hash
+     * @param paths
+     * @param prefix
+     * @param found
+     */
+    private static void lookupAll(ObjectStore store, String hash,
+                                  SortedSet<String> paths, String prefix,
+                                  Map<String, String> found) {
+        Tree tree = read(store, hash);
+        TreeMap<String, TreeSet<String>> below = new TreeMap<>();
+        for (String path: paths) {
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                below.computeIfAbsent(path.substring(0, slash),
+                    k -> new TreeSet<>()).add(path.substring(slash + 1));
+            } else if (tree._files.containsKey(path)) {
+                found.put(prefix + path, tree._files.get(path));
+            }
+        }
+        for (Map.Entry<String, TreeSet<String>> e: below.entrySet()) {
+            String sub = tree._directories.get(e.getKey());
+            if (sub != null) {
+                lookupAll(store, sub, e.getValue(),
+                        prefix + e.getKey() + "/", found);
+            }
+        }
+    }
+
+    /** Returns the hash of tree ROOT of STORE with CHANGES made to it,
+     * storing the trees that are new. CHANGES maps the path of each file
+     * to its new blob hash, or to null to remove it; ROOT is null for an
+     * empty tree. Only the trees along the changed paths are read and
+     * written. Directories left empty are dropped, except the root.
+     * @param store
+     * @param root
+     * @param changes
+     * @return
+     */
+    static String update(ObjectStore store, String root,
+                         SortedMap<String, String> changes) {
+        String hash = apply(store, root, changes);
+        return hash != null ? hash : new Tree().write(store);
+    }
+
+    /** Returns the hash of tree HASH of STORE with CHANGES made to it,
+     * as for update, or null if it is left empty.
+     * @param store
+     * @param hash
+     * @param changes
+     * @return
+     */
+    private static String apply(ObjectStore store, String hash,
+                                SortedMap<String, String> changes) {
+        Tree tree = hash == null ? new Tree() : read(store, hash);
+        TreeMap<String, TreeMap<String, String>> below = new TreeMap<>();
+        for (Map.Entry<String, String> e: changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                below.computeIfAbsent(path.substring(0, slash),
+                    k -> new TreeMap<>()).put(path.substring(slash + 1),
+                            e.getValue());
+            } else if (e.getValue() == null) {
+                tree._files.remove(path);
+            } else {
+                tree._files.put(path, e.getValue());
+                tree._directories.remove(path);
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> e: below.entrySet()) {
+            String name = e.getKey();
+            String sub = apply(store, tree._directories.get(name),
+                    e.getValue());
+            if (sub == null) {
+                tree._directories.remove(name);
+            } else {
+                tree._directories.put(name, sub);
+                tree._files.remove(name);
+            }
+        }
+        return tree.isEmpty() ? null : tree.write(store);
+    }
+
+    /** Returns the files whose blobs differ between trees BEFORE and
+     * AFTER of STORE, either of which may be null for an empty tree,
+     * sorted by path. Subdirectories with the same hash on both sides
+     * are not read.
+     * @param store
+     * @param before
+     * @param after
+     * @return
+     */
+    static List<Change> diff(ObjectStore store, String before,
+                             String after) {
+        ArrayList<Change> changes = new ArrayList<>();
+        diff(store, before, after, "", changes);
+        return changes;
+    }
+
+    /** Add the files whose blobs differ between trees BEFORE and AFTER
+     * of STORE to CHANGES, with their paths prefixed by PREFIX.
+     * @param store
+     * @param before
+     * @param after
+     * @param prefix
+     * @param changes
+     */
+    private static void diff(ObjectStore store, String before, String after,
+                             String prefix, List<Change> changes) {
+        if (Objects.equals(before, after)) {
+            return;
+        }
+        Tree b = before == null ? new Tree() : read(store, before);
+        Tree a = after == null ? new Tree() : read(store, after);
+        TreeSet<String> names = new TreeSet<>(b._files.keySet());
+        names.addAll(a._files.keySet());
+        names.addAll(b._directories.keySet());
+        names.addAll(a._directories.keySet());
+        for (String name: names) {
+            String path = prefix + name;
+            String bFile = b._files.get(name);
+            String aFile = a._files.get(name);
+            if (!Objects.equals(bFile, aFile)) {
+                changes.add(new Change(path, bFile, aFile));
+            }
+            diff(store, b._directories.get(name), a._directories.get(name),
+                    path + "/", changes);
+        }
+    }
+
+    /** Returns, sorted by path, each file whose blob differs between
+     * trees BASE and THEIRS of STORE, with its blobs there and in tree
+     * OURS; any of the trees may be null for an empty tree. The entries
+     * of the three trees are joined in order of name a directory at a
+     * time, and a subdirectory with the same hash in BASE and THEIRS is
+     * skipped whole, so OURS is only read along the paths THEIRS
+     * changed.
+     * @param store
+     * @param base
+     * @param ours
+     * @param theirs
+     * @return
+     */
+    static List<ThreeWay> diff3(ObjectStore store, String base, String ours,
+                                String theirs) {
+        ArrayList<ThreeWay> changes = new ArrayList<>();
+        diff3(store, base, ours, theirs, "", changes);
+        return changes;
+    }
+
+    /** Add the files whose blobs differ between trees BASE and THEIRS
+     * of STORE to CHANGES, with their blobs in tree OURS, as for diff3,
+     * with their paths prefixed by PREFIX.
+     * @param store
+     * @param base
+     * @param ours
+     * @param theirs
+     * @param prefix
+     * @param changes
+     */
+    private static void diff3(ObjectStore store, String base, String ours,
+                              String theirs, String prefix,
+                              List<ThreeWay> changes) {
+        if (Objects.equals(base, theirs)) {
+            return;
+        }
+        Tree b = base == null ? new Tree() : read(store, base);
+        Tree o = ours == null ? new Tree() : read(store, ours);
+        Tree t = theirs == null ? new Tree() : read(store, theirs);
+        TreeSet<String> names = new TreeSet<>(b._files.keySet());
+        names.addAll(t._files.keySet());
+        names.addAll(b._directories.keySet());
+        names.addAll(t._directories.keySet());
+        for (String name: names) {
+            String path = prefix + name;
+            String bFile = b._files.get(name);
+            String tFile = t._files.get(name);
+            if (!Objects.equals(bFile, tFile)) {
+                changes.add(new ThreeWay(path, bFile, o._files.get(name),
+                        tFile));
+            }
+            diff3(store, b._directories.get(name), o._directories.get(name),
+                    t._directories.get(name), path + "/", changes);
+        }
+    }
+
+    /** A file whose blob differs between two trees. */
+    static class Change {
+
+        /** Path of the file. */
+        private final String _path;
+
+        /** Blob hash of the file before, or null if it was absent. */
+        private final String _before;
+
+        /** Blob hash of the file after, or null if it is absent. */
+        private final String _after;
+
+        /** A change of the file at PATH from blob BEFORE to blob AFTER.
+         * @param path
+         * @param before
+         * @param after
+         */
+        Change(String path, String before, String after) {
+            _path = path;
+            _before = before;
+            _after = after;
+        }
+
+        /** Get the path of the file.
+         * @return
+         */
+        String getPath() {
+            return _path;
+        }
+
+        /** Get the blob hash of the file before, or null.
+         * @return
+         */
+        String getBefore() {
+            return _before;
+        }
+
+        /** Get the blob hash of the file after, or null.
+         * @return
+         */
+        String getAfter() {
+            return _after;
+        }
+    }
+
+    /** A file whose blob differs between a base tree and their tree,
+     * with its blob in our tree. */
+    static class ThreeWay {
+
+        /** Path of the file. */
+        private final String _path;
+
+        /** Blob hash of the file in the base tree, or null. */
+        private final String _base;
+
+        /** Blob hash of the file in our tree, or null. */
+        private final String _ours;
+
+        /** Blob hash of the file in their tree, or null. */
+        private final String _theirs;
+
+        /** The file at PATH, with blobs BASE, OURS and THEIRS.
+         * @param path
+         * @param base
+         * @param ours
+         * @param theirs
+         */
+        ThreeWay(String path, String base, String ours, String theirs) {
+            _path = path;
+            _base = base;
+            _ours = ours;
+            _theirs = theirs;
+        }
+
+        /** Get the path of the file.
+         * @return
+         */
+        String getPath() {
+            return _path;
+        }
+
+        /** Get the blob hash of the file in the base tree, or null.
+         * @return
+         */
+        String getBase() {
+            return _base;
+        }
+
+        /** Get the blob hash of the file in our tree, or null.
+         * @return
+         */
+        String getOurs() {
+            return _ours;
+        }
+
+        /** Get the blob hash of the file in their tree, or null.
+         * @return
+         */
+        String getTheirs() {
+            return _theirs;
+        }
+    }
+}
@@ -1,11 +1,39 @@
 package gitlet;
 
 import ucb.junit.textui;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
 /** The suite of all JUnit tests for the gitlet package.
- *  @author
+ *  @author David Long
  */
 public class UnitTest {
 
@@ -15,11 +43,1040 @@ public class UnitTest {
         System.exit(textui.runClasses(UnitTest.class));
     }
 
+    /** A directory for each test's repository files. */
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** The commit b6248a2, "two files", as Java-serialized by the first
+     *  version of gitlet, tracking a.txt and b.txt. */
+    private static final String LEGACY_COMMIT =
+        "rO0ABXNyAA1naXRsZXQuQ29tbWl0D8Iz9sNzOkcCAAVMAA5fY29tbWl0TWVz" +
+        "c2FnZXQAEkxqYXZhL2xhbmcvU3RyaW5nO0wAB19wYXJlbnRxAH4AAUwACV9w" +
+        "cmV2SGFzaHQAFkxqYXZhL3V0aWwvTGlua2VkTGlzdDtMAA9fcmVmZXJlbmNl" +
+        "RmlsZXN0ABVMamF2YS91dGlsL0FycmF5TGlzdDtMAApfdGltZXN0YW1wdAAQ" +
+        "TGphdmEvdXRpbC9EYXRlO3hwdAAJdHdvIGZpbGVzdAAoNGE5ZWVjZWEyMjAw" +
+        "OWM3ZTNmYjVmZjcxMDZjNWU4N2YwOTlmYjUyM3NyABRqYXZhLnV0aWwuTGlu" +
+        "a2VkTGlzdAwpU11KYIgiAwAAeHB3BAAAAAFxAH4AB3hzcgATamF2YS51dGls" +
+        "LkFycmF5TGlzdHiB0h2Zx2GdAwABSQAEc2l6ZXhwAAAAAncEAAAAAnNyABRn" +
+        "aXRsZXQuRmlsZVJlZmVyZW5jZQ8zI/sbEJDeAgAESQAIX3ZlcnNpb25MAAVf" +
+        "ZmlsZXQADkxqYXZhL2lvL0ZpbGU7TAAJX2ZpbGVOYW1lcQB+AAFMAA5fcmVm" +
+        "ZXJlbmNlSGFzaHEAfgABeHAAAAAAc3IADGphdmEuaW8uRmlsZQQtpEUODeT/" +
+        "AwABTAAEcGF0aHEAfgABeHB0ACYvdG1wL2JsLy5naXRsZXQvc3RhZ2luZy9h" +
+        "ZGRpdGlvbi9hLnR4dHcCAC94dAAFYS50eHR0ACgzZjc4Njg1MGUzODc1NTBm" +
+        "ZGFiODM2ZWQ3ZTZkYzg4MWRlMjMwMDFic3EAfgAMAAAAAHNxAH4AD3QAJi90" +
+        "bXAvYmwvLmdpdGxldC9zdGFnaW5nL2FkZGl0aW9uL2IudHh0dwIAL3h0AAVi" +
+        "LnR4dHQAKDg5ZTZjOThkOTI4ODc5MTNjYWRmMDZiMmFkYjk3ZjI2Y2RlNDg0" +
+        "OWJ4c3IADmphdmEudXRpbC5EYXRlaGqBAUtZdBkDAAB4cHcIAAABoU46VUZ4";
+
     /** A dummy test to avoid complaint. */
     @Test
     public void placeholderTest() {
     }
 
-}
+    /** Returns N random bytes drawn from RANDOM. */
+    private static byte[] randomBytes(Random random, int n) {
+        byte[] data = new byte[n];
+        random.nextBytes(data);
+        return data;
+    }
+
+    /** Returns DATA with the bytes from START to END replaced by
+     *  INSERTED. */
+    private static byte[] splice(byte[] data, int start, int end,
+                                 byte[] inserted) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(data, 0, start);
+        out.write(inserted, 0, inserted.length);
+        out.write(data, end, data.length - end);
+        return out.toByteArray();
+    }
+
+    /** Returns the hash of a made-up object named NAME. */
+    private static String hash(String name) {
+        return Utils.sha1(name);
+    }
+
+    /** Returns a tree store in a new directory. */
+    private ObjectStore treeStore() throws IOException {
+        File gitlet = tmp.newFolder();
+        return new ObjectStore(new File(gitlet, "trees"), new Packs(gitlet),
+                Pack.TREE);
+    }
+
+    /** Returns an empty commit store in directory GITLET. */
+    private static ObjectStore commitStore(File gitlet) {
+        return new ObjectStore(new File(gitlet, "commits"),
+                new Packs(gitlet), Pack.COMMIT);
+    }
+
+    /** Applying a delta to its base gives back its target, and a small
+     *  edit gives a small delta. */
+    @Test
+    public void deltaRoundTripTest() {
+        Random random = new Random(1);
+        byte[] base = randomBytes(random, 100000);
+        List<byte[]> targets = List.of(
+            base,
+            splice(base, 50000, 50000, randomBytes(random, 100)),
+            splice(base, 20000, 30000, new byte[0]),
+            splice(base, 70000, 70100, randomBytes(random, 50)),
+            splice(base, base.length, base.length, randomBytes(random, 7)),
+            splice(base, 0, 3, new byte[0]),
+            Arrays.copyOf(base, 10),
+            randomBytes(random, 5000),
+            new byte[0]);
+        for (byte[] target: targets) {
+            assertArrayEquals(target,
+                    Delta.apply(base, Delta.create(base, target)));
+            assertArrayEquals(target,
+                    Delta.apply(new byte[0], Delta.create(new byte[0],
+                            target)));
+        }
+        byte[] edited = targets.get(1);
+        assertTrue(Delta.create(base, edited).length < edited.length / 10);
+    }
+
+    /** Objects are deflated when that makes them smaller, stay deflated
+     *  when moved into a pack, and read back the same through a fresh
+     *  Packs, whole or streamed. */
+    @Test
+    public void packRoundTripTest() throws IOException {
+        File gitlet = tmp.newFolder();
+        File folder = new File(gitlet, "blobs");
+        folder.mkdir();
+        Packs packs = new Packs(gitlet);
+        ObjectStore blobs = new ObjectStore(folder, packs, Pack.BLOB);
+        Random random = new Random(6);
+        TreeMap<String, byte[]> objects = new TreeMap<>();
+        for (int i = 0; i < 60; i += 1) {
+            byte[] contents = i % 2 == 0
+                ? ("line " + i + "\n").repeat(random.nextInt(300))
+                    .getBytes(StandardCharsets.UTF_8)
+                : randomBytes(random, random.nextInt(3000));
+            byte[] stored = ObjectFormat.raw(contents);
+            String h = Utils.sha1(contents);
+            objects.put(h, stored);
+            blobs.write(h, stored);
+            long length = blobs.objectFile(h).length();
+            if (i % 2 == 0 && contents.length > 1000) {
+                assertTrue(length < contents.length / 5);
+            }
+            assertTrue(length <= stored.length);
+        }
+        Pack.Writer writer = packs.newWriter();
+        ArrayList<String> packed = new ArrayList<>();
+        for (String h: objects.keySet()) {
+            if (packed.size() < 40) {
+                writer.add(h, Pack.BLOB, blobs.readStored(h));
+                packed.add(h);
+            }
+        }
+        packs.addPack(writer.finish());
+        for (String h: packed) {
+            blobs.removeLoose(h);
+        }
+
+        ObjectStore reopened = new ObjectStore(folder, new Packs(gitlet),
+                Pack.BLOB);
+        for (Map.Entry<String, byte[]> e: objects.entrySet()) {
+            assertTrue(reopened.contains(e.getKey()));
+            assertArrayEquals(e.getValue(), reopened.read(e.getKey()));
+            try (InputStream in = reopened.open(e.getKey())) {
+                assertArrayEquals(e.getValue(), in.readAllBytes());
+            }
+        }
+        assertEquals(new ArrayList<>(objects.keySet()), reopened.allIds());
+        assertEquals(objects.size() - packed.size(),
+                reopened.looseIds().size());
+        assertFalse(reopened.contains(Utils.sha1("missing")));
+    }
+
+    /** Returns the chunks Chunker splits DATA into. */
+    private static List<byte[]> chunks(byte[] data) throws IOException {
+        Chunker chunker = new Chunker(new ByteArrayInputStream(data));
+        ArrayList<byte[]> chunks = new ArrayList<>();
+        for (byte[] c = chunker.next(); c != null; c = chunker.next()) {
+            chunks.add(c);
+        }
+        return chunks;
+    }
+
+    /** Returns the hashes of CHUNKS. */
+    private static List<String> chunkHashes(List<byte[]> chunks) {
+        ArrayList<String> hashes = new ArrayList<>();
+        for (byte[] c: chunks) {
+            hashes.add(Utils.sha1(c));
+        }
+        return hashes;
+    }
+
+    /** Chunks join back into the stream and keep within the size
+     *  limits, and an insert only changes the chunks around it. */
+    @Test
+    public void chunkerBoundariesTest() throws IOException {
+        Random random = new Random(2);
+        byte[] data = randomBytes(random, 12 << 20);
+        List<byte[]> chunks = chunks(data);
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i += 1) {
+            byte[] c = chunks.get(i);
+            assertTrue(c.length <= Chunker.MAX_CHUNK);
+            assertTrue(i == chunks.size() - 1
+                    || c.length >= Chunker.MIN_CHUNK);
+            joined.write(c, 0, c.length);
+        }
+        assertArrayEquals(data, joined.toByteArray());
+        assertTrue(chunks.size() > 3);
+
+        int at = 5 << 20;
+        List<String> before = chunkHashes(chunks);
+        List<String> after = chunkHashes(chunks(splice(data, at, at,
+                randomBytes(random, 100))));
+        int offset = 0;
+        for (int i = 0; offset + chunks.get(i).length <= at; i += 1) {
+            assertEquals(before.get(i), after.get(i));
+            offset += chunks.get(i).length;
+        }
+        HashSet<String> changed = new HashSet<>(after);
+        changed.removeAll(before);
+        assertTrue(changed.size() <= 2);
+        assertEquals(before.get(before.size() - 1),
+                after.get(after.size() - 1));
+    }
+
+    /** Commits encoded with a tree read back the same and encode to the
+     *  same bytes; commits encoded with their files and commits
+     *  Java-serialized by older versions still read. */
+    @Test
+    public void commitCodecTest() throws IOException {
+        ObjectStore trees = treeStore();
+        Commit c = new Commit(1234567890123L, "fix caf\u00e9 \u2603");
+        c.addPrevHash(hash("p1"));
+        c.addPrevHash(hash("p2"));
+        c.setTree(hash("tree"), trees);
+        byte[] data = CommitCodec.encode(c);
+        assertTrue(CommitCodec.isEncoded(data));
+        Commit d = CommitCodec.decode(data, trees);
+        assertEquals(c.getTimestamp(), d.getTimestamp());
+        assertEquals(c.getCommitMessage(), d.getCommitMessage());
+        assertEquals(List.of(hash("p1"), hash("p2")),
+                d.getAllParentCommit());
+        assertEquals(hash("tree"), d.getTree());
+        assertArrayEquals(data, CommitCodec.encode(d));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[] {'G', 'L', 'C', 1});
+        out.writeLong(42);
+        out.writeInt(3);
+        out.write("old".getBytes(StandardCharsets.UTF_8));
+        out.writeByte(1);
+        out.write(Utils.hexToBytes(hash("parent")));
+        out.writeInt(2);
+        for (String name: List.of("a.txt", "d/b.txt")) {
+            out.writeShort(name.length());
+            out.write(name.getBytes(StandardCharsets.UTF_8));
+            out.write(Utils.hexToBytes(hash(name)));
+        }
+        Commit flat = CommitCodec.decode(bytes.toByteArray(), trees);
+        assertEquals(42, flat.getTimestamp().getTime());
+        assertEquals("old", flat.getCommitMessage());
+        assertEquals(List.of(hash("parent")), flat.getAllParentCommit());
+        assertNull(flat.getTree());
+        assertEquals(Map.of("a.txt", hash("a.txt"), "d/b.txt",
+                hash("d/b.txt")), flat.getManifest());
+
+        byte[] legacy = Base64.getDecoder().decode(LEGACY_COMMIT);
+        assertFalse(CommitCodec.isEncoded(legacy));
+        assertEquals("b6248a27144049069cedd23fa647cfa520a409c5",
+                Utils.sha1(legacy));
+        Commit old = Utils.deserialize(legacy, Commit.class);
+        assertEquals("two files", old.getCommitMessage());
+        assertEquals(List.of("4a9eecea22009c7e3fb5ff7106c5e87f099fb523"),
+                old.getAllParentCommit());
+        assertEquals(Map.of(
+                "a.txt", "3f786850e387550fdab836ed7e6dc881de23001b",
+                "b.txt", "89e6c98d92887913cadf06b2adb97f26cde4849b"),
+                old.getManifest());
+    }
+
+    /** Returns a random manifest drawn from RANDOM over PATHS, each
+     *  tracked with one of a few blobs or not at all. */
+    private static TreeMap<String, String> randomManifest(Random random,
+                                                          List<String> paths) {
+        TreeMap<String, String> manifest = new TreeMap<>();
+        for (String path: paths) {
+            int v = random.nextInt(4);
+            if (v > 0) {
+                manifest.put(path, hash(path + v));
+            }
+        }
+        return manifest;
+    }
+
+    /** Tree.diff and Tree.diff3 agree with comparing whole manifests, and
+     *  updating a tree gives the tree built from scratch. */
+    @Test
+    public void treeDiffTest() throws IOException {
+        ObjectStore store = treeStore();
+        List<String> paths = List.of("a", "b", "d/x", "d/y", "d/e/z",
+                "d/e/w", "f/q", "f/g/h/r", "z");
+        Random random = new Random(3);
+        for (int trial = 0; trial < 200; trial += 1) {
+            TreeMap<String, String> base = randomManifest(random, paths);
+            TreeMap<String, String> ours = randomManifest(random, paths);
+            TreeMap<String, String> theirs = randomManifest(random, paths);
+            String b = Tree.update(store, null, base);
+            String o = Tree.update(store, null, ours);
+            TreeMap<String, String> edits = new TreeMap<>();
+            for (String path: paths) {
+                if (!Objects.equals(base.get(path), theirs.get(path))) {
+                    edits.put(path, theirs.get(path));
+                }
+            }
+            String t = Tree.update(store, b, edits);
+            assertEquals(Tree.update(store, null, theirs), t);
+
+            HashMap<String, List<String>> expected = new HashMap<>();
+            HashMap<String, List<String>> expected3 = new HashMap<>();
+            for (String path: paths) {
+                if (!Objects.equals(base.get(path), theirs.get(path))) {
+                    expected.put(path,
+                        Arrays.asList(base.get(path), theirs.get(path)));
+                    expected3.put(path, Arrays.asList(base.get(path),
+                            ours.get(path), theirs.get(path)));
+                }
+            }
+            HashMap<String, List<String>> got = new HashMap<>();
+            for (Tree.Change c: Tree.diff(store, b, t)) {
+                got.put(c.getPath(),
+                        Arrays.asList(c.getBefore(), c.getAfter()));
+            }
+            assertEquals(expected, got);
+            HashMap<String, List<String>> got3 = new HashMap<>();
+            for (Tree.ThreeWay c: Tree.diff3(store, b, o, t)) {
+                got3.put(c.getPath(), Arrays.asList(c.getBase(),
+                        c.getOurs(), c.getTheirs()));
+            }
+            assertEquals(expected3, got3);
+        }
+    }
+
+    /** Returns a commit graph in a new directory holding COMMITS, which
+     *  maps each hash to its commit. */
+    private CommitGraph graphOf(Map<String, Commit> commits)
+        throws IOException {
+        File gitlet = tmp.newFolder();
+        CommitGraph graph = new CommitGraph(gitlet, commitStore(gitlet),
+                commits::get);
+        graph.add(commits.keySet());
+        return graph;
+    }
+
+    /** Returns a commit made at TIME with PARENTS. */
+    private static Commit commit(long time, String... parents) {
+        Commit c = new Commit(time, "m");
+        for (String p: parents) {
+            c.addPrevHash(p);
+        }
+        return c;
+    }
+
+    /** A criss-cross merge has both of its crossing commits as best
+     *  common ancestors, also from commits not yet in the graph. */
+    @Test
+    public void mergeBaseCrissCrossTest() throws IOException {
+        String r = hash("r"), a1 = hash("a1"), b1 = hash("b1");
+        String a2 = hash("a2"), b2 = hash("b2");
+        String a3 = hash("a3"), b3 = hash("b3");
+        HashMap<String, Commit> commits = new HashMap<>();
+        commits.put(r, commit(0));
+        commits.put(a1, commit(1, r));
+        commits.put(b1, commit(2, r));
+        commits.put(a2, commit(3, a1, b1));
+        commits.put(b2, commit(4, b1, a1));
+        commits.put(a3, commit(5, a2));
+        commits.put(b3, commit(6, b2));
+        CommitGraph graph = graphOf(commits);
+        assertEquals(Set.of(a1, b1),
+                new HashSet<>(MergeBase.findAll(graph, a3, b3)));
+        assertEquals(b1, MergeBase.find(graph, a3, b3));
+        assertEquals(a2, MergeBase.find(graph, a2, a3));
+        assertEquals(a3, MergeBase.find(graph, a3, a3));
+        assertEquals(r, MergeBase.find(graph, a1, b1));
+
+        String a4 = hash("a4"), b4 = hash("b4");
+        commits.put(a4, commit(7, a3));
+        commits.put(b4, commit(8, b3));
+        assertFalse(graph.contains(a4));
+        assertEquals(Set.of(a1, b1),
+                new HashSet<>(MergeBase.findAll(graph, a4, b4)));
+        assertTrue(graph.contains(a4) && graph.contains(b4));
+    }
+
+    /** A commit missing from the graph, with ancestors that are missing
+     *  too, is added when looked up by positionAdding. */
+    @Test
+    public void commitGraphAddsMissingTest() throws IOException {
+        String r = hash("r"), a = hash("a"), b = hash("b");
+        HashMap<String, Commit> commits = new HashMap<>();
+        commits.put(r, commit(0));
+        CommitGraph graph = graphOf(commits);
+        commits.put(a, commit(1, r));
+        commits.put(b, commit(2, a));
+        assertFalse(graph.contains(b));
+        assertEquals(-1, graph.position(b));
+        int position = graph.positionAdding(b);
+        assertEquals(b, graph.hashAt(position));
+        assertEquals(List.of(a), graph.parents(b));
+        assertEquals(List.of(r), graph.parents(a));
+        assertEquals(3, graph.size());
+        assertEquals(graph.position(b), graph.positionAdding(b));
+    }
+
+    /** The graph holds the parents, generation and time of commits added
+     *  in batches, keeps few layers, finds them by prefix, reads back the
+     *  same when reopened and keeps only the commits retain is given. */
+    @Test
+    public void commitGraphTest() throws IOException {
+        Random random = new Random(7);
+        File gitlet = tmp.newFolder();
+        HashMap<String, Commit> commits = new HashMap<>();
+        CommitGraph graph = new CommitGraph(gitlet, commitStore(gitlet),
+                commits::get);
+        HashMap<String, Integer> generations = new HashMap<>();
+        ArrayList<String> hashes = new ArrayList<>();
+        while (hashes.size() < 500) {
+            ArrayList<String> batch = new ArrayList<>();
+            for (int k = 1 + random.nextInt(40); k > 0; k -= 1) {
+                int i = hashes.size();
+                Commit c = commit(1000L * i);
+                int generation = 1;
+                for (int p = random.nextInt(Math.min(i, 2) + 1); p > 0;
+                     p -= 1) {
+                    String parent = hashes.get(random.nextInt(i));
+                    if (!c.getAllParentCommit().contains(parent)) {
+                        c.addPrevHash(parent);
+                        generation = Math.max(generation,
+                                generations.get(parent) + 1);
+                    }
+                }
+                hashes.add(hash("g" + i));
+                commits.put(hash("g" + i), c);
+                generations.put(hash("g" + i), generation);
+                batch.add(hash("g" + i));
+            }
+            graph.add(batch.subList(batch.size() - 1, batch.size()));
+            graph.add(batch);
+            assertEquals(hashes.size(), graph.size());
+            int layers = Utils.readContentsAsString(
+                    Utils.join(gitlet, "graph", "chain")).split("\n").length;
+            assertTrue(1 << (layers - 1) <= graph.size());
+        }
+
+        CommitGraph reopened = new CommitGraph(gitlet, commitStore(gitlet),
+                commits::get);
+        for (CommitGraph g: List.of(graph, reopened)) {
+            for (String h: hashes) {
+                int position = g.position(h);
+                assertEquals(h, g.hashAt(position));
+                assertEquals(commits.get(h).getAllParentCommit(),
+                        g.parents(h));
+                assertEquals((int) generations.get(h),
+                        g.generationAt(position));
+                assertEquals(commits.get(h).getTimestamp().getTime(),
+                        g.timestampAt(position));
+            }
+            assertFalse(g.contains(hash("missing")));
+            for (String prefix: List.of("", "a", "0f", "7", "e3", "e31",
+                    hashes.get(7).substring(0, 5), hashes.get(9), "x")) {
+                TreeSet<String> expected = new TreeSet<>();
+                for (String h: hashes) {
+                    if (h.startsWith(prefix)) {
+                        expected.add(h);
+                    }
+                }
+                assertEquals(expected,
+                        new TreeSet<>(g.idsWithPrefix(prefix, 1000)));
+                assertEquals(Math.min(2, expected.size()),
+                        g.idsWithPrefix(prefix, 2).size());
+            }
+        }
+
+        HashSet<String> keep = new HashSet<>(hashes.subList(0, 100));
+        reopened.retain(keep);
+        assertEquals(keep.size(), reopened.size());
+        for (String h: hashes) {
+            assertEquals(keep.contains(h), reopened.contains(h));
+        }
+        for (String h: keep) {
+            assertEquals(commits.get(h).getAllParentCommit(),
+                    reopened.parents(h));
+        }
+    }
+
+    /** MergeBase.findAll agrees with the best common ancestors found from
+     *  the ancestor sets of a random history. */
+    @Test
+    public void mergeBaseRandomTest() throws IOException {
+        Random random = new Random(4);
+        int n = 150;
+        HashMap<String, Commit> commits = new HashMap<>();
+        ArrayList<Set<Integer>> ancestors = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            Commit c = commit(1000L * i);
+            HashSet<Integer> anc = new HashSet<>(List.of(i));
+            if (i > 0) {
+                TreeSet<Integer> parents = new TreeSet<>();
+                parents.add(i - 1 - random.nextInt(Math.min(i, 6)));
+                if (i > 2 && random.nextInt(3) == 0) {
+                    parents.add(random.nextInt(i));
+                }
+                for (int p: parents) {
+                    c.addPrevHash(hash("c" + p));
+                    anc.addAll(ancestors.get(p));
+                }
+            }
+            ancestors.add(anc);
+            commits.put(hash("c" + i), c);
+        }
+        CommitGraph graph = graphOf(commits);
+        for (int k = 0; k < 300; k += 1) {
+            int x = random.nextInt(n), y = random.nextInt(n);
+            Set<Integer> common = new HashSet<>(ancestors.get(x));
+            common.retainAll(ancestors.get(y));
+            HashSet<String> best = new HashSet<>();
+            for (int c: common) {
+                boolean below = false;
+                for (int d: common) {
+                    below |= d != c && ancestors.get(d).contains(c);
+                }
+                if (!below) {
+                    best.add(hash("c" + c));
+                }
+            }
+            assertEquals(best, new HashSet<>(MergeBase.findAll(graph,
+                    hash("c" + x), hash("c" + y))));
+        }
+    }
+
+    /** Check that INDEX finds the commits a scan of MESSAGES, which maps
+     *  each commit to its message, finds for each text of QUERIES. */
+    private static void checkMessages(MessageIndex index,
+                                      Map<String, String> messages,
+                                      List<String> queries) {
+        for (String text: queries) {
+            ArrayList<String> expected = new ArrayList<>();
+            ArrayList<String> exact = new ArrayList<>();
+            for (Map.Entry<String, String> e: messages.entrySet()) {
+                if (e.getValue().contains(text)) {
+                    expected.add(e.getKey());
+                }
+                if (e.getValue().equals(text)) {
+                    exact.add(e.getKey());
+                }
+            }
+            ArrayList<String> got = new ArrayList<>();
+            index.containing(text, got::add);
+            assertEquals(expected, got);
+            ArrayList<String> gotExact = new ArrayList<>();
+            index.withMessage(text, gotExact::add);
+            assertEquals(exact, gotExact);
+        }
+    }
+
+    /** MessageIndex finds the commits a scan of every message finds,
+     *  for short, long and non-ASCII texts, from the segments written
+     *  by several adds, after reopening them and after retain. */
+    @Test
+    public void messageIndexTest() throws IOException {
+        Random random = new Random(5);
+        String[] words = {"fix", "add", "merge", "caf\u00e9", "ab", "aab",
+                          "bug", "Merged", "x", " "};
+        TreeMap<String, String> messages = new TreeMap<>();
+        HashMap<String, Commit> commits = new HashMap<>();
+        File gitlet = tmp.newFolder();
+        MessageIndex index = new MessageIndex(gitlet, commitStore(gitlet),
+                commits::get);
+        for (int batch = 0; batch < 5; batch += 1) {
+            ArrayList<String> added = new ArrayList<>();
+            for (int i = 0; i < 40; i += 1) {
+                StringBuilder message = new StringBuilder();
+                for (int w = random.nextInt(5); w >= 0; w -= 1) {
+                    message.append(words[random.nextInt(words.length)]);
+                }
+                String h = hash("m" + batch + "/" + i);
+                messages.put(h, message.toString());
+                commits.put(h, new Commit(i, message.toString()));
+                added.add(h);
+            }
+            index.add(added.subList(0, 10));
+            index.add(added);
+        }
+        ArrayList<String> queries = new ArrayList<>(List.of("", "a", "ab",
+                "aab", "fix", "xfix", "caf\u00e9", "\u00e9b", "zzz",
+                "Merged", " x"));
+        for (String message: messages.values()) {
+            int start = random.nextInt(message.length() + 1);
+            queries.add(message.substring(start, start
+                    + random.nextInt(message.length() - start + 1)));
+        }
+        checkMessages(index, messages, queries);
+        String[] segments = Utils.readContentsAsString(
+                Utils.join(gitlet, "messages", "chain")).split("\n");
+        assertTrue(segments.length > 1);
+        assertTrue(1 << (segments.length - 1) <= messages.size());
+
+        MessageIndex reopened = new MessageIndex(gitlet,
+                commitStore(gitlet), h -> null);
+        checkMessages(reopened, messages, queries);
+        messages.keySet().removeIf(h -> random.nextBoolean());
+        reopened.retain(messages.keySet());
+        for (String h: commits.keySet()) {
+            assertEquals(messages.containsKey(h), reopened.contains(h));
+        }
+        checkMessages(reopened, messages, queries);
+        checkMessages(new MessageIndex(gitlet, commitStore(gitlet),
+                h -> null), messages, queries);
+    }
+
+    /** Returns a new process running gitlet command ARGS in directory
+     *  DIR, with its standard error mixed into its output. */
+    private static Process start(File dir, String... args)
+        throws IOException {
+        StringBuilder classPath = new StringBuilder();
+        for (String entry: System.getProperty("java.class.path")
+                 .split(File.pathSeparator)) {
+            classPath.append(new File(entry).getAbsolutePath())
+                .append(File.pathSeparator);
+        }
+        ArrayList<String> command = new ArrayList<>(List.of("java", "-cp",
+                classPath.toString(), "gitlet.Main"));
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).directory(dir)
+            .redirectErrorStream(true).start();
+    }
+
+    /** Returns the output of gitlet command ARGS run in directory DIR by
+     *  a new process, with its standard error mixed in. */
+    private static String gitlet(File dir, String... args)
+        throws IOException, InterruptedException {
+        Process p = start(dir, args);
+        String out = new String(p.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        p.waitFor();
+        return out;
+    }
+
+    /** Set the modification time of every file under DIR to TIME. */
+    private static void touchAll(File dir, long time) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f: files) {
+                touchAll(f, time);
+                f.setLastModified(time);
+            }
+        }
+    }
+
+    /** A blob stored as a delta that gc keeps because it is recent is
+     *  kept with its older, unreachable base, so it can still be read
+     *  when it is staged and committed again. */
+    @Test
+    public void gcKeepsBaseOfRecentDeltaTest() throws Exception {
+        File dir = tmp.newFolder();
+        File f = new File(dir, "f.txt");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i += 1) {
+            text.append("line ").append(i).append("\n");
+        }
+        String v1 = text.toString();
+        String v2 = v1 + "one more line\n";
+        gitlet(dir, "init");
+        gitlet(dir, "branch", "x");
+        gitlet(dir, "checkout", "x");
+        Utils.writeContents(f, v1);
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "v1");
+        Utils.writeContents(f, v2);
+        gitlet(dir, "add", "f.txt");
+        Utils.writeContents(f, v1);
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "checkout", "master");
+        gitlet(dir, "rm-branch", "x");
+        File gitletDir = new File(dir, ".gitlet");
+        touchAll(gitletDir, System.currentTimeMillis() - 30L * 86400000);
+        String h2 = Utils.sha1(v2.getBytes(StandardCharsets.UTF_8));
+        File blob = Utils.join(gitletDir, "blobs", h2.substring(0, 2),
+                h2.substring(2));
+        assertTrue(blob.isFile());
+        blob.setLastModified(System.currentTimeMillis());
+
+        gitlet(dir, "gc");
+        Utils.writeContents(f, v2);
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "v2");
+        f.delete();
+        gitlet(dir, "checkout", "--", "f.txt");
+        assertEquals(v2, Utils.readContentsAsString(f));
+    }
 
+    /** gc keeps unreachable objects until they are older than the grace
+     *  period, then removes them and their trees, loose or packed, and
+     *  keeps everything the branches reach. */
+    @Test
+    public void gcRemovesUnreachableTest() throws Exception {
+        File dir = tmp.newFolder();
+        File a = new File(dir, "a.txt");
+        gitlet(dir, "init");
+        Utils.writeContents(a, "one");
+        gitlet(dir, "add", "a.txt");
+        gitlet(dir, "commit", "first");
+        gitlet(dir, "branch", "x");
+        gitlet(dir, "checkout", "x");
+        Utils.writeContents(a, "two");
+        gitlet(dir, "add", "a.txt");
+        gitlet(dir, "commit", "second");
+        gitlet(dir, "repack");
+        Utils.writeContents(new File(dir, "b.txt"), "three");
+        gitlet(dir, "add", "b.txt");
+        gitlet(dir, "commit", "third");
+        gitlet(dir, "checkout", "master");
+        gitlet(dir, "rm-branch", "x");
+
+        assertEquals("Removed 0 objects.", gitlet(dir, "gc").trim());
+        Thread.sleep(10);
+        assertEquals("Removed 6 objects.",
+                gitlet(dir, "gc", "--grace=0").trim());
+        File gitletDir = new File(dir, ".gitlet");
+        ObjectStore blobs = new ObjectStore(new File(gitletDir, "blobs"),
+                new Packs(gitletDir), Pack.BLOB);
+        assertTrue(blobs.contains(Utils.sha1("one")));
+        assertFalse(blobs.contains(Utils.sha1("two")));
+        assertFalse(blobs.contains(Utils.sha1("three")));
+        String log = gitlet(dir, "global-log");
+        assertTrue(log, log.contains("first"));
+        assertFalse(log, log.contains("second") || log.contains("third"));
+        a.delete();
+        gitlet(dir, "checkout", "--", "a.txt");
+        assertEquals("one", Utils.readContentsAsString(a));
+    }
+
+    /** status reads a working file again only when its stat data
+     *  changed, so an edit that keeps the size and modification time
+     *  goes unseen until the file is touched. */
+    @Test
+    public void statCacheTest() throws Exception {
+        File dir = tmp.newFolder();
+        File a = new File(dir, "a.txt");
+        long past = System.currentTimeMillis() / 1000 * 1000 - 3600000;
+        gitlet(dir, "init");
+        Utils.writeContents(a, "aaaa");
+        a.setLastModified(past);
+        gitlet(dir, "add", "a.txt");
+        gitlet(dir, "commit", "a");
+        assertFalse(gitlet(dir, "status").contains("a.txt"));
+
+        Utils.writeContents(a, "bbbb");
+        a.setLastModified(past);
+        assertFalse(gitlet(dir, "status").contains("a.txt"));
+        a.setLastModified(past + 1000);
+        assertTrue(gitlet(dir, "status").contains("a.txt (modified)"));
+    }
 
+    /** A racy entry, not older than the index, is hashed again and the
+     *  index rewritten, after which the entry is trusted. */
+    @Test
+    public void racyStatEntryTest() throws Exception {
+        File dir = tmp.newFolder();
+        File a = new File(dir, "a.txt");
+        File index = new File(dir, ".gitlet/index");
+        long past = System.currentTimeMillis() / 1000 * 1000 - 3600000;
+        gitlet(dir, "init");
+        Utils.writeContents(a, "aaaa");
+        a.setLastModified(past);
+        gitlet(dir, "add", "a.txt");
+        gitlet(dir, "commit", "a");
+        index.setLastModified(past - 1000);
+        assertFalse(gitlet(dir, "status").contains("a.txt"));
+        assertTrue(index.lastModified() > past);
+
+        Utils.writeContents(a, "bbbb");
+        a.setLastModified(past);
+        assertFalse(gitlet(dir, "status").contains("a.txt"));
+    }
+
+    /** Copy the files under directory FROM into directory TO. */
+    private static void copyAll(File from, File to) throws IOException {
+        to.mkdirs();
+        for (File f: from.listFiles()) {
+            if (f.isDirectory()) {
+                copyAll(f, new File(to, f.getName()));
+            } else {
+                Files.copy(f.toPath(), new File(to, f.getName()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /** log and merge add a head missing from the commit graph, as after
+     *  a command interrupted before it updated the graph, to the graph
+     *  instead of failing. */
+    @Test
+    public void logHeadMissingFromGraphTest() throws Exception {
+        File dir = tmp.newFolder();
+        File graph = new File(dir, ".gitlet/graph");
+        File saved = tmp.newFolder();
+        gitlet(dir, "init");
+        gitlet(dir, "branch", "other");
+        Utils.writeContents(new File(dir, "a.txt"), "a");
+        gitlet(dir, "add", "a.txt");
+        gitlet(dir, "commit", "first");
+        copyAll(graph, saved);
+        Utils.writeContents(new File(dir, "a.txt"), "b");
+        gitlet(dir, "add", "a.txt");
+        gitlet(dir, "commit", "second");
+        for (File f: graph.listFiles()) {
+            f.delete();
+        }
+        copyAll(saved, graph);
+        String log = gitlet(dir, "log");
+        assertTrue(log, log.contains("second") && log.contains("first")
+                && log.contains("initial commit"));
+        assertEquals("Given branch is an ancestor of the current branch.",
+                gitlet(dir, "merge", "other").trim());
+    }
+
+    /** Returns the messages of the commits listed in the output LOG of
+     *  log, in order. */
+    private static List<String> logMessages(String log) {
+        ArrayList<String> messages = new ArrayList<>();
+        String[] lines = log.split("\n");
+        for (int i = 0; i + 1 < lines.length; i += 1) {
+            if (lines[i].startsWith("Date: ")) {
+                messages.add(lines[i + 1]);
+            }
+        }
+        return messages;
+    }
+
+    /** log shows the commits -n, --skip, --since and --until select, in
+     *  first-parent order, and rejects malformed options. */
+    @Test
+    public void logOptionsTest() throws Exception {
+        File dir = tmp.newFolder();
+        gitlet(dir, "init");
+        for (int i = 1; i <= 5; i += 1) {
+            Utils.writeContents(new File(dir, "a.txt"), "v" + i);
+            gitlet(dir, "add", "a.txt");
+            gitlet(dir, "commit", "c" + i);
+        }
+        assertEquals(List.of("c5", "c4", "c3", "c2", "c1", "initial commit"),
+                logMessages(gitlet(dir, "log")));
+        assertEquals(List.of("c5", "c4"),
+                logMessages(gitlet(dir, "log", "-n", "2")));
+        assertEquals(List.of("c4", "c3"),
+                logMessages(gitlet(dir, "log", "--skip=1", "-n", "2")));
+        assertEquals(List.of(),
+                logMessages(gitlet(dir, "log", "--skip=6")));
+        assertEquals(List.of("initial commit"),
+                logMessages(gitlet(dir, "log", "--until=2000-01-01")));
+        assertEquals(List.of("c2", "c1"),
+                logMessages(gitlet(dir, "log", "--since=2000-01-01T00:00",
+                        "--skip=3")));
+        assertEquals("Incorrect operands.",
+                gitlet(dir, "log", "-n", "-1").trim());
+        assertEquals("Incorrect operands.",
+                gitlet(dir, "log", "--since=yesterday").trim());
+    }
+
+    /** Write CONTENTS to file NAME under DIR and stage it. */
+    private static void addFile(File dir, String name, String contents)
+        throws IOException, InterruptedException {
+        File f = new File(dir, name);
+        f.getParentFile().mkdirs();
+        Utils.writeContents(f, contents);
+        gitlet(dir, "add", name);
+    }
+
+    /** merge takes each file changed on only one side from that side,
+     *  in subdirectories too, and marks a file changed on both as a
+     *  conflict. */
+    @Test
+    public void mergeTest() throws Exception {
+        File dir = tmp.newFolder();
+        gitlet(dir, "init");
+        addFile(dir, "d/a.txt", "a");
+        addFile(dir, "d/b.txt", "b");
+        addFile(dir, "c.txt", "c");
+        addFile(dir, "x.txt", "x");
+        gitlet(dir, "commit", "base");
+        gitlet(dir, "branch", "other");
+        addFile(dir, "d/b.txt", "b master");
+        addFile(dir, "x.txt", "x master");
+        gitlet(dir, "commit", "on master");
+        gitlet(dir, "checkout", "other");
+        addFile(dir, "d/a.txt", "a other");
+        addFile(dir, "e/f.txt", "f");
+        addFile(dir, "x.txt", "x other");
+        gitlet(dir, "rm", "c.txt");
+        gitlet(dir, "commit", "on other");
+        gitlet(dir, "checkout", "master");
+
+        assertEquals("Encountered a merge conflict.",
+                gitlet(dir, "merge", "other").trim());
+        assertEquals("a other",
+                Utils.readContentsAsString(new File(dir, "d/a.txt")));
+        assertEquals("b master",
+                Utils.readContentsAsString(new File(dir, "d/b.txt")));
+        assertEquals("f",
+                Utils.readContentsAsString(new File(dir, "e/f.txt")));
+        assertFalse(new File(dir, "c.txt").exists());
+        assertEquals("<<<<<<< HEAD\nx master=======\nx other>>>>>>>\n",
+                Utils.readContentsAsString(new File(dir, "x.txt")));
+        String log = gitlet(dir, "log");
+        assertTrue(log, log.contains("Merged other into master."));
+        assertTrue(log, log.contains("Merge: "));
+        assertFalse(gitlet(dir, "status").contains("(modified)"));
+    }
+
+    /** add stores a file as a blob, and commit records the contents it
+     *  had then, even if it was changed or deleted since. */
+    @Test
+    public void commitStagedContentsTest() throws Exception {
+        File dir = tmp.newFolder();
+        File a = new File(dir, "a.txt");
+        File b = new File(dir, "b.txt");
+        gitlet(dir, "init");
+        addFile(dir, "a.txt", "one");
+        addFile(dir, "b.txt", "kept");
+        File gitletDir = new File(dir, ".gitlet");
+        ObjectStore blobs = new ObjectStore(new File(gitletDir, "blobs"),
+                new Packs(gitletDir), Pack.BLOB);
+        assertTrue(blobs.contains(Utils.sha1("one")));
+        Utils.writeContents(a, "two");
+        b.delete();
+        assertTrue(gitlet(dir, "status").contains("a.txt (modified)"));
+        gitlet(dir, "commit", "staged");
+        assertEquals("two", Utils.readContentsAsString(a));
+        gitlet(dir, "checkout", "--", "a.txt");
+        gitlet(dir, "checkout", "--", "b.txt");
+        assertEquals("one", Utils.readContentsAsString(a));
+        assertEquals("kept", Utils.readContentsAsString(b));
+    }
+
+    /** Returns the lines of section TITLE of the output STATUS of
+     *  status. */
+    private static List<String> statusSection(String status, String title) {
+        List<String> lines = Arrays.asList(status.split("\n"));
+        int start = lines.indexOf("=== " + title + " ===") + 1;
+        int end = start;
+        while (end < lines.size() && !lines.get(end).isEmpty()) {
+            end += 1;
+        }
+        return lines.subList(start, end);
+    }
+
+    /** add stages the files its paths and patterns match, nothing if any
+     *  of them matches nothing, and with -A every change and removal. */
+    @Test
+    public void addGlobsTest() throws Exception {
+        File dir = tmp.newFolder();
+        gitlet(dir, "init");
+        for (String name: List.of("a.txt", "b.md", "d/c.txt", "d/e/g.txt")) {
+            File f = new File(dir, name);
+            f.getParentFile().mkdirs();
+            Utils.writeContents(f, name);
+        }
+        gitlet(dir, "add", "*.txt");
+        assertEquals(List.of("a.txt"),
+                statusSection(gitlet(dir, "status"), "Staged Files"));
+        assertEquals("File does not exist.",
+                gitlet(dir, "add", "b.md", "nope.txt").trim());
+        gitlet(dir, "add", "b.md", "*.zzz");
+        assertEquals(List.of("a.txt"),
+                statusSection(gitlet(dir, "status"), "Staged Files"));
+        gitlet(dir, "add", "b.md", "d/**");
+        assertEquals(List.of("a.txt", "b.md", "d/c.txt", "d/e/g.txt"),
+                statusSection(gitlet(dir, "status"), "Staged Files"));
+        gitlet(dir, "commit", "all");
+
+        Utils.writeContents(new File(dir, "a.txt"), "changed");
+        Utils.writeContents(new File(dir, "d/new.txt"), "new");
+        new File(dir, "b.md").delete();
+        gitlet(dir, "add", "-A");
+        String status = gitlet(dir, "status");
+        assertEquals(List.of("a.txt", "d/new.txt"),
+                statusSection(status, "Staged Files"));
+        assertEquals(List.of("b.md"), statusSection(status, "Removed Files"));
+        assertEquals(List.of(), statusSection(status,
+                "Modifications Not Staged For Commit"));
+        assertEquals(List.of(), statusSection(status, "Untracked Files"));
+    }
+
+    /** Returns a daemon serving the repository in DIR, once its socket
+     *  SOCKET is there. */
+    private static Process startDaemon(File dir, File socket)
+        throws IOException, InterruptedException {
+        Process daemon = start(dir, "daemon");
+        for (int i = 0; i < 100 && !socket.exists(); i += 1) {
+            Thread.sleep(100);
+        }
+        assertTrue(socket.exists());
+        return daemon;
+    }
+
+    /** Commands sent to a running daemon give the same output as when
+     *  run on their own, also while a client that never sends its
+     *  request is connected, until the daemon drops it. A second daemon
+     *  declines to start, and daemon --stop stops the first. */
+    @Test
+    public void daemonTest() throws Exception {
+        File dir = tmp.newFolder();
+        File socket = new File(dir, ".gitlet/" + Daemon.SOCKET_NAME);
+        gitlet(dir, "init");
+        addFile(dir, "a.txt", "a");
+        gitlet(dir, "commit", "first");
+        String status = gitlet(dir, "status");
+        Process daemon = startDaemon(dir, socket);
+        try {
+            assertEquals(status, gitlet(dir, "status"));
+            assertEquals("A daemon is already running.",
+                    gitlet(dir, "daemon").trim());
+            addFile(dir, "b.txt", "b");
+            gitlet(dir, "commit", "second");
+            String log = gitlet(dir, "log");
+            assertTrue(log, log.contains("second") && log.contains("first"));
+            assertEquals("No command with that name exists.",
+                    gitlet(dir, "nope").trim());
+            try (SocketChannel stalled = SocketChannel.open(
+                    UnixDomainSocketAddress.of(socket.toPath()))) {
+                long connected = System.currentTimeMillis();
+                assertEquals(log, gitlet(dir, "log"));
+                assertEquals(-1, stalled.read(ByteBuffer.allocate(1)));
+                assertTrue(System.currentTimeMillis() - connected < 20000);
+            }
+            gitlet(dir, "daemon", "--stop");
+            assertTrue(daemon.waitFor(10, TimeUnit.SECONDS));
+            assertFalse(socket.exists());
+            assertEquals(log, gitlet(dir, "log"));
+        } finally {
+            daemon.destroy();
+        }
+    }
+
+    /** Checking out a branch writes its version of a tracked file over
+     *  local edits, as reset does. */
+    @Test
+    public void checkoutBranchOverwritesEditsTest() throws Exception {
+        File dir = tmp.newFolder();
+        File a = new File(dir, "a.txt");
+        gitlet(dir, "init");
+        addFile(dir, "a.txt", "a");
+        gitlet(dir, "commit", "first");
+        gitlet(dir, "branch", "other");
+        Utils.writeContents(a, "local");
+        gitlet(dir, "checkout", "other");
+        assertEquals("a", Utils.readContentsAsString(a));
+    }
+}
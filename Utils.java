@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -11,10 +12,13 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
 
@@ -59,6 +63,48 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, which is read
+     *  through a fixed buffer rather than into memory whole. */
+    static String fileSha1(File file) {
+        try (FileInputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[1 << 16];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+            byte[] digest = md.digest();
+            return bytesToHex(digest, 0, digest.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** The length of a complete SHA-1 UID in bytes. */
+    static final int UID_BYTES = UID_LENGTH / 2;
+
+    /** Returns the UID_BYTES bytes of the hexadecimal SHA-1 UID HASH. */
+    static byte[] hexToBytes(String hash) {
+        byte[] result = new byte[hash.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                hash.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal numeral of the LEN bytes of BYTES
+     *  starting at OFFSET. */
+    static String bytesToHex(byte[] bytes, int offset, int len) {
+        StringBuilder result = new StringBuilder(2 * len);
+        for (int i = offset; i < offset + len; i += 1) {
+            result.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+            result.append(Character.forDigit(bytes[i] & 0xf, 16));
+        }
+        return result.toString();
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -132,6 +178,31 @@ class Utils {
         }
     }
 
+    /** Replace FILE with CONTENTS atomically, by writing a temporary file
+     *  in its directory and renaming it, so that readers see either the
+     *  old or the new contents.  Creates the directory if needed.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeAtomically(File file, byte[] contents) {
+        writeAtomically(file, contents,
+                file.getAbsoluteFile().getParentFile());
+    }
+
+    /** Replace FILE with CONTENTS atomically, as writeAtomically(FILE,
+     *  CONTENTS) does, but writing the temporary file in TMPDIR, which
+     *  must be on the same file system, so that it never appears among
+     *  the files of the directory of FILE. */
+    static void writeAtomically(File file, byte[] contents, File tmpDir) {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try {
+            File tmp = File.createTempFile("tmp-", null, tmpDir);
+            writeContents(tmp, contents);
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -148,6 +219,23 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from the serialized bytes CONTENTS,
+     *  casting it to EXPECTEDCLASS.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T deserialize(byte[] contents,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(contents));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -184,6 +272,44 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns the paths, relative to DIR and separated by '/', of all
+     *  plain files in DIR and its subdirectories, other than .gitlet
+     *  directories, in lexicographic order.  Returns an empty list if
+     *  DIR does not denote a directory. */
+    static List<String> plainFilenamesUnder(File dir) {
+        ArrayList<String> paths = new ArrayList<>();
+        addPlainFilenamesUnder(dir, "", paths);
+        Collections.sort(paths);
+        return paths;
+    }
+
+    /** Add the paths of the plain files under DIR, prefixed by PREFIX,
+     *  to PATHS. */
+    private static void addPlainFilenamesUnder(File dir, String prefix,
+                                               List<String> paths) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isFile()) {
+                paths.add(prefix + f.getName());
+            } else if (f.isDirectory() && !f.getName().equals(".gitlet")) {
+                addPlainFilenamesUnder(f, prefix + f.getName() + "/", paths);
+            }
+        }
+    }
+
+    /** Deletes FILE, and then each directory above it, up to but not
+     *  including TOP, that is left empty. */
+    static void deletePruning(File file, File top) {
+        file.delete();
+        File dir = file.getParentFile();
+        while (dir != null && !dir.equals(top) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
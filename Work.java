@@ -0,0 +1,139 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The work file in which older versions kept the branches, the
+ * current branch, the staging area and the remotes of a repository.
+ * It is only read, once, to convert a repository made by an older
+ * version into refs, HEAD, the index file and the remotes file.
+ * @author David Long */
+class Work implements Serializable {
+
+    /** Serialization version of the class older versions wrote. */
+    private static final long serialVersionUID = 332671402473373569L;
+
+    /** The hash of the head commit of the current branch. */
+    private String _currheadHash;
+
+    /** The name of the current branch. */
+    private String _currBranch;
+
+    /** Unused. */
+    private String _matsterheadHash;
+
+    /** The name and head of every branch. */
+    private ArrayList<Branch> _branches;
+
+    /** The staging area. */
+    private StagingArea _stagingArea;
+
+    /** The names of the remotes. */
+    private Remotes _remote;
+
+    /** Copies of the commits of the current branch. */
+    private ArrayList<Commit> _currBranchCommitHistory;
+
+    /** Unused. */
+    private int _changesMade;
+
+    /** Returns the work file FILE.
+     * @param file
+     * @return
+     */
+    static Work read(File file) {
+        try (ObjectInputStream in = new LegacyInputStream(
+                new FileInputStream(file))) {
+            return (Work) in.readObject();
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw Utils.error("Cannot read the work file of an older "
+                    + "version: %s", excp.getMessage());
+        }
+    }
+
+    /** Get the name of the current branch.
+     * @return
+     */
+    String getCurrBranch() {
+        return _currBranch;
+    }
+
+    /** Get the hash of the head commit of each branch, by name.
+     * @return
+     */
+    Map<String, String> getBranchHashes() {
+        Map<String, String> heads = new TreeMap<>();
+        for (Branch b: _branches) {
+            heads.put(b._branchName, b._headPointerHash);
+        }
+        return heads;
+    }
+
+    /** Get the staging area, as older versions serialized it.
+     * @return
+     */
+    StagingArea getStagingArea() {
+        return _stagingArea;
+    }
+
+    /** A branch, as older versions serialized it. */
+    private static class Branch implements Serializable {
+
+        /** Serialization version of the class older versions wrote. */
+        private static final long serialVersionUID = -4537356834374231353L;
+
+        /** The branch name. */
+        private String _branchName;
+
+        /** The hash of the head commit of the branch. */
+        private String _headPointerHash;
+    }
+
+    /** The remotes, as older versions serialized them. Only the names
+     * were kept, since adding a remote copied its directory in place of
+     * its path and failed. */
+    private static class Remotes implements Serializable {
+
+        /** Serialization version of the class older versions wrote. */
+        private static final long serialVersionUID = -3298637464404755181L;
+
+        /** The names of the remotes. */
+        private ArrayList<String> _remotePlace;
+    }
+
+    /** Reads a work file, with the branches and remotes in it read as
+     * Branch and Remotes, which have the fields the classes older
+     * versions wrote had. */
+    private static class LegacyInputStream extends ObjectInputStream {
+
+        /** A stream reading IN.
+         * @param in
+         */
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            switch (desc.getName()) {
+            case "gitlet.CommitBranch":
+                return ObjectStreamClass.lookup(Branch.class);
+            case "gitlet.RemoteInfo":
+                return ObjectStreamClass.lookup(Remotes.class);
+            default:
+                return desc;
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/** Runs independent pieces of work, such as hashing files, on a bounded
+ * fork-join pool. The pool has as many threads as the gitlet.threads
+ * property says, by default one per core, so a laptop can be kept from
+ * being overwhelmed. Results always come back in the order of the work,
+ * so output does not depend on scheduling. The pool is made the first
+ * time it is needed and kept for the rest of the process, so a daemon
+ * serving many commands does not start new threads for each.
+ * @author David Long */
+class Workers {
+
+    /** Number of threads work is spread over. */
+    static final int PARALLELISM = Math.max(1, Integer.getInteger(
+            "gitlet.threads", Runtime.getRuntime().availableProcessors()));
+
+    /** Returns the results of F applied to each of ITEMS, in order.
+     * @param items
+     * @param f
+     * @return
+     */
+    static <T, R> List<R> map(List<T> items, Function<T, R> f) {
+        return map(items.size(), i -> f.apply(items.get(i)));
+    }
+
+    /** Returns the results of F applied to 0 through N - 1, in order.
+     * @param n
+     * @param f
+     * @return
+     */
+    static <R> List<R> map(int n, IntFunction<R> f) {
+        if (n <= 1 || PARALLELISM == 1) {
+            return IntStream.range(0, n).mapToObj(f)
+                .collect(Collectors.toList());
+        }
+        try {
+            return Pool.POOL.submit(() -> IntStream.range(0, n).parallel()
+                    .mapToObj(f).collect(Collectors.toList())).get();
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    /** Holds the pool, which is only made when first used. */
+    private static class Pool {
+
+        /** The pool of PARALLELISM threads. Its worker threads are
+         *  daemon threads, so it never keeps the process running. */
+        static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM);
+    }
+}